@@ -0,0 +1,85 @@
+package net.lenni0451.jartransformer.benchmark;
+
+import net.lenni0451.jartransformer.transformers.EntryTransformer;
+import net.lenni0451.jartransformer.transformers.impl.AccessTransformer;
+import net.lenni0451.jartransformer.transformers.impl.ExcludeTransformer;
+import net.lenni0451.jartransformer.transformers.impl.RepackageTransformer;
+import net.lenni0451.jartransformer.transformers.impl.StringReplaceTransformer;
+import org.gradle.api.Project;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Creates the transformers used by the benchmarks with a configuration like in a typical build.
+ */
+public class BenchmarkTransformers {
+
+    public static final List<String> TYPES = List.of("exclude", "repackage", "access", "stringReplace");
+
+    /**
+     * Find a class which is not relocated, so the access transformer finds it before and after the relocation.
+     *
+     * @param entries The entries of the jar
+     * @return The name of the class
+     */
+    public static String findAccessClass(final Map<String, byte[]> entries) {
+        for (String name : entries.keySet()) {
+            if (name.startsWith("net/other/common/") && name.endsWith(".class")) return name.substring(0, name.length() - 6);
+        }
+        throw new IllegalStateException("The jar does not contain any class which is not relocated");
+    }
+
+    /**
+     * Create a configured transformer.
+     *
+     * @param project     The project used to instantiate the transformer
+     * @param type        The type of the transformer, one of {@link #TYPES}
+     * @param accessClass The class which is made accessible by the access transformer
+     * @return The configured transformer
+     */
+    public static EntryTransformer create(final Project project, final String type, final String accessClass) {
+        return switch (type) {
+            case "repackage" -> {
+                RepackageTransformer transformer = project.getObjects().newInstance(RepackageTransformer.class, type);
+                transformer.getRelocations().put(SyntheticJars.LIBRARY_PACKAGE.replace('/', '.'), "shaded." + SyntheticJars.LIBRARY_PACKAGE.replace('/', '.'));
+                transformer.getRelocations().put("org.thirdparty.io", "shaded.org.thirdparty.io");
+                transformer.getRemapStrings().set(true);
+                transformer.getRemoveEmptyDirs().set(true);
+                yield transformer;
+            }
+            case "stringReplace" -> {
+                StringReplaceTransformer transformer = project.getObjects().newInstance(StringReplaceTransformer.class, type);
+                transformer.getReplacements().put("${version}", "1.2.3");
+                transformer.getFileExtensions().set(List.of(".class", ".properties", ".json", ".mf"));
+                yield transformer;
+            }
+            case "exclude" -> {
+                ExcludeTransformer transformer = project.getObjects().newInstance(ExcludeTransformer.class, type);
+                transformer.getExcludes().add("org/thirdparty/io");
+                transformer.getExcludes().add("META-INF/services");
+                transformer.getRegexExcludes().add(".*\\.png");
+                yield transformer;
+            }
+            case "access" -> {
+                AccessTransformer transformer = project.getObjects().newInstance(AccessTransformer.class, type);
+                transformer.getFull().add(accessClass);
+                transformer.getMutable().add(accessClass + ".name:Ljava/lang/String;");
+                yield transformer;
+            }
+            default -> throw new IllegalArgumentException("Unknown transformer type: " + type);
+        };
+    }
+
+    /**
+     * Create all transformers in the order of {@link #TYPES}.
+     *
+     * @param project     The project used to instantiate the transformers
+     * @param accessClass The class which is made accessible by the access transformer
+     * @return The configured transformers
+     */
+    public static List<EntryTransformer> createAll(final Project project, final String accessClass) {
+        return TYPES.stream().map(type -> create(project, type, accessClass)).toList();
+    }
+
+}
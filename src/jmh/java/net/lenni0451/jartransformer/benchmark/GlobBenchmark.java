@@ -0,0 +1,64 @@
+package net.lenni0451.jartransformer.benchmark;
+
+import net.lenni0451.jartransformer.utils.ExcludeMatcher;
+import net.lenni0451.jartransformer.utils.PatternUtils;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+
+/**
+ * Matches the entry names of a jar against typical exclude globs of the merger.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class GlobBenchmark {
+
+    private static final List<String> GLOBS = List.of(
+            "META-INF/*.SF", "META-INF/*.DSA", "META-INF/*.RSA", "META-INF/maven/**", "META-INF/versions/*/module-info.class",
+            "**/module-info.class", "**/*.kotlin_module", "**/package-info.class", "org/thirdparty/io/**", "**/Class1?.properties"
+    );
+
+    @Param({"1000", "50000"})
+    public int classes;
+
+    private String[] names;
+    private List<Pattern> patterns;
+    private ExcludeMatcher matcher;
+
+    @Setup
+    public void setup() {
+        this.names = SyntheticJars.generate(this.classes, 0).keySet().toArray(new String[0]);
+        this.patterns = new ArrayList<>();
+        for (String glob : GLOBS) this.patterns.add(PatternUtils.globToRegex(glob));
+        this.matcher = ExcludeMatcher.ofGlobs(GLOBS);
+    }
+
+    @Benchmark
+    public void compile(final Blackhole blackhole) {
+        for (String glob : GLOBS) blackhole.consume(PatternUtils.globToRegex(glob));
+    }
+
+    @Benchmark
+    public void matchRegexes(final Blackhole blackhole) {
+        for (String name : this.names) {
+            boolean matches = false;
+            for (Pattern pattern : this.patterns) {
+                if (pattern.matcher(name).matches()) {
+                    matches = true;
+                    break;
+                }
+            }
+            blackhole.consume(matches);
+        }
+    }
+
+    @Benchmark
+    public void matchCompiled(final Blackhole blackhole) {
+        for (String name : this.names) blackhole.consume(this.matcher.matches(name));
+    }
+
+}
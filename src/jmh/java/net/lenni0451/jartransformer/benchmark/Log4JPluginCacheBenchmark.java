@@ -0,0 +1,54 @@
+package net.lenni0451.jartransformer.benchmark;
+
+import net.lenni0451.jartransformer.utils.Log4JPluginCache;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializes and merges the log4j plugin caches of multiple jars, like the merger does.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class Log4JPluginCacheBenchmark {
+
+    private static final int JARS = 10;
+
+    @Param({"10", "100", "1000"})
+    public int plugins;
+
+    private Log4JPluginCache cache;
+    private List<byte[]> serializedCaches;
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(0);
+        List<String> classNames = new ArrayList<>();
+        for (int i = 0; i < this.plugins * 2; i++) classNames.add(SyntheticJars.LIBRARY_PACKAGE + "/plugins/Plugin" + i);
+        this.cache = SyntheticJars.log4jPlugins(random, classNames, this.plugins);
+        this.serializedCaches = new ArrayList<>();
+        for (int i = 0; i < JARS; i++) this.serializedCaches.add(SyntheticJars.log4jPlugins(random, classNames, this.plugins).serialize());
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        return this.cache.serialize();
+    }
+
+    @Benchmark
+    public Log4JPluginCache deserialize() throws IOException {
+        return Log4JPluginCache.deserialize(this.serializedCaches.get(0));
+    }
+
+    @Benchmark
+    public byte[] merge() throws IOException {
+        Log4JPluginCache merged = new Log4JPluginCache();
+        for (byte[] serializedCache : this.serializedCaches) merged.merge(Log4JPluginCache.deserialize(serializedCache));
+        return merged.serialize();
+    }
+
+}
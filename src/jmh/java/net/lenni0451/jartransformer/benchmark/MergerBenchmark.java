@@ -0,0 +1,65 @@
+package net.lenni0451.jartransformer.benchmark;
+
+import net.lenni0451.jartransformer.tasks.JarMergerTask;
+import net.lenni0451.jartransformer.utils.DeletingFileVisitor;
+import org.gradle.api.Project;
+import org.gradle.api.file.DuplicatesStrategy;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Merges a project jar with its dependencies.<br>
+ * The dependencies share some entry names, services and log4j plugin caches, so all kinds of duplicates are handled.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class MergerBenchmark {
+
+    private static final int CLASSES_PER_JAR = 1000;
+
+    @Param({"10", "50"})
+    public int jars;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private Path directory;
+    private JarMergerTask task;
+
+    @Setup
+    public void setup() throws IOException {
+        this.directory = Files.createTempDirectory("jartransformer-benchmark");
+        Project project = ProjectBuilder.builder().withProjectDir(this.directory.resolve("project").toFile()).build();
+        this.task = project.getTasks().register("mergeJars", JarMergerTask.class).get();
+        this.task.getProjectJar().set(SyntheticJars.write(SyntheticJars.generate(CLASSES_PER_JAR, 0), this.directory.resolve("project.jar").toFile()));
+        for (int i = 1; i < this.jars; i++) {
+            File jar = SyntheticJars.write(SyntheticJars.generate(CLASSES_PER_JAR, i), this.directory.resolve("dependency" + i + ".jar").toFile());
+            this.task.getInputFiles().from(jar);
+        }
+        this.task.getOutputJar().set(this.directory.resolve("merged.jar").toFile());
+        this.task.getDuplicatesStrategy().set(DuplicatesStrategy.EXCLUDE);
+        this.task.getExcludes().set(Set.of("META-INF/*.SF", "META-INF/*.DSA", "META-INF/*.RSA", "**/module-info.class"));
+        this.task.getMergeServices().set(true);
+        this.task.getMergeLog4jPlugins().set(true);
+        this.task.getParallelism().set(this.parallelism);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.walkFileTree(this.directory, new DeletingFileVisitor());
+    }
+
+    @Benchmark
+    public File merge() throws IOException {
+        this.task.run();
+        return this.task.getOutputJar().get().getAsFile();
+    }
+
+}
@@ -0,0 +1,56 @@
+package net.lenni0451.jartransformer.benchmark;
+
+import net.lenni0451.jartransformer.transformers.Transformer;
+import net.lenni0451.jartransformer.utils.DeletingFileVisitor;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.helpers.NOPLogger;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Transforms a jar file from the disk with all transformers, like a dependency transformation does.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class PipelineBenchmark {
+
+    @Param({"1000", "10000", "50000"})
+    public int classes;
+
+    @Param({"1", "4"})
+    public int parallelism;
+
+    private Path directory;
+    private File input;
+    private File output;
+    private List<Transformer> transformers;
+
+    @Setup
+    public void setup() throws IOException {
+        this.directory = Files.createTempDirectory("jartransformer-benchmark");
+        Map<String, byte[]> entries = SyntheticJars.generate(this.classes, 0);
+        this.input = SyntheticJars.write(entries, this.directory.resolve("input.jar").toFile());
+        this.output = this.directory.resolve("output.jar").toFile();
+        this.transformers = new ArrayList<>(BenchmarkTransformers.createAll(ProjectBuilder.builder().build(), BenchmarkTransformers.findAccessClass(entries)));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.walkFileTree(this.directory, new DeletingFileVisitor());
+    }
+
+    @Benchmark
+    public File transform() throws Throwable {
+        Transformer.applyAll(NOPLogger.NOP_LOGGER, this.input, this.output, this.transformers, this.parallelism, null, null);
+        return this.output;
+    }
+
+}
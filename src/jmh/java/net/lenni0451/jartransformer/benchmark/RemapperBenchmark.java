@@ -0,0 +1,65 @@
+package net.lenni0451.jartransformer.benchmark;
+
+import net.lenni0451.jartransformer.utils.PackageRemapper;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Looks up the relocation of class names, about half of which are relocated.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class RemapperBenchmark {
+
+    private static final int NAMES = 10_000;
+
+    @Param({"1", "10", "100"})
+    public int relocations;
+
+    private PackageRemapper remapper;
+    private String[] names;
+    private String[] dottedNames;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(0);
+        Map<String, String> mapping = new HashMap<>();
+        mapping.put(SyntheticJars.LIBRARY_PACKAGE.replace('/', '.'), "shaded." + SyntheticJars.LIBRARY_PACKAGE.replace('/', '.'));
+        for (int i = 1; i < this.relocations; i++) mapping.put("com.example.dependency" + i, "shaded.com.example.dependency" + i);
+        this.remapper = new PackageRemapper(mapping);
+
+        this.names = new String[NAMES];
+        this.dottedNames = new String[NAMES];
+        for (int i = 0; i < NAMES; i++) {
+            String name = switch (random.nextInt(4)) {
+                case 0, 1 -> SyntheticJars.LIBRARY_PACKAGE + "/sub" + random.nextInt(10) + "/Class" + i;
+                case 2 -> "com/example/dependency" + random.nextInt(this.relocations * 2) + "/Class" + i;
+                default -> "java/util/Class" + i;
+            };
+            this.names[i] = name;
+            this.dottedNames[i] = name.replace('/', '.');
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NAMES)
+    public void mapUnchecked(final Blackhole blackhole) {
+        for (String name : this.names) blackhole.consume(this.remapper.mapUnchecked(name));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NAMES)
+    public void mapDotted(final Blackhole blackhole) {
+        for (String name : this.dottedNames) blackhole.consume(this.remapper.mapDotted(name));
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(NAMES)
+    public void mapCached(final Blackhole blackhole) {
+        for (String name : this.names) blackhole.consume(this.remapper.map(name));
+    }
+
+}
@@ -0,0 +1,188 @@
+package net.lenni0451.jartransformer.benchmark;
+
+import net.lenni0451.jartransformer.utils.Log4JPluginCache;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+import static org.objectweb.asm.Opcodes.*;
+
+/**
+ * Generates reproducible jars for the benchmarks.<br>
+ * The jars contain classes which reference each other, service files, text resources, binary resources and a log4j plugin cache,
+ * roughly like a typical library. The same size and seed always generate the same content.
+ */
+public class SyntheticJars {
+
+    /**
+     * The package which is relocated by the benchmarks. About half of the generated classes are in this package.
+     */
+    public static final String LIBRARY_PACKAGE = "com/example/library";
+    public static final String LOG4J_PLUGINS = "META-INF/org/apache/logging/log4j/core/config/plugins/Log4j2Plugins.dat";
+    private static final String[] PACKAGES = {
+            LIBRARY_PACKAGE + "/api", LIBRARY_PACKAGE + "/impl", LIBRARY_PACKAGE + "/util",
+            "org/thirdparty/core", "org/thirdparty/io", "net/other/common"
+    };
+
+    /**
+     * Generate the entries of a jar.
+     *
+     * @param classes The amount of classes
+     * @param seed    The seed of the random content
+     * @return The entries of the jar in order
+     */
+    public static Map<String, byte[]> generate(final int classes, final long seed) {
+        Random random = new Random(seed);
+        List<String> classNames = new ArrayList<>(classes);
+        for (int i = 0; i < classes; i++) classNames.add(PACKAGES[random.nextInt(PACKAGES.length)] + "/Class" + i);
+
+        Map<String, byte[]> entries = new LinkedHashMap<>();
+        entries.put("META-INF/MANIFEST.MF", "Manifest-Version: 1.0\r\nImplementation-Version: ${version}\r\n\r\n".getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < classes; i++) {
+            String className = classNames.get(i);
+            entries.put(className + ".class", createClass(random, className, classNames));
+            if (i % 10 == 0) {
+                entries.put(className + ".properties", text(
+                        "name=" + className.replace('/', '.'),
+                        "version=${version}",
+                        "factory=" + randomClass(random, classNames).replace('/', '.')
+                ));
+            }
+            if (i % 25 == 0) {
+                entries.put(className + ".json", text(
+                        "{",
+                        "  \"class\": \"" + className.replace('/', '.') + "\",",
+                        "  \"version\": \"${version}\",",
+                        "  \"dependencies\": [\"" + randomClass(random, classNames).replace('/', '.') + "\"]",
+                        "}"
+                ));
+            }
+            if (i % 50 == 0) {
+                //Incompressible data like images
+                byte[] data = new byte[1024 + random.nextInt(16 * 1024)];
+                random.nextBytes(data);
+                entries.put(className + ".png", data);
+            }
+        }
+        for (int i = 0; i < Math.max(1, classes / 100); i++) {
+            String service = randomClass(random, classNames).replace('/', '.');
+            entries.put("META-INF/services/" + service, text(
+                    randomClass(random, classNames).replace('/', '.'),
+                    randomClass(random, classNames).replace('/', '.')
+            ));
+        }
+        try {
+            entries.put(LOG4J_PLUGINS, log4jPlugins(random, classNames, Math.max(1, classes / 20)).serialize());
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to serialize the log4j plugin cache", e);
+        }
+        return entries;
+    }
+
+    /**
+     * Generate a log4j plugin cache with plugins from the given classes.
+     *
+     * @param random     The random to use
+     * @param classNames The classes to create plugins for
+     * @param plugins    The amount of plugins
+     * @return The plugin cache
+     */
+    public static Log4JPluginCache log4jPlugins(final Random random, final List<String> classNames, final int plugins) {
+        Log4JPluginCache cache = new Log4JPluginCache();
+        String[] categories = {"core", "converter", "lookup", "typeconverter"};
+        for (int i = 0; i < plugins; i++) {
+            String className = randomClass(random, classNames).replace('/', '.');
+            String name = className.substring(className.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT) + i;
+            cache.addCategory(categories[random.nextInt(categories.length)]).put(name, new Log4JPluginCache.PluginEntry(className, name, random.nextBoolean(), random.nextBoolean()));
+        }
+        return cache;
+    }
+
+    /**
+     * Write the entries to a jar file.<br>
+     * Directory entries are added for all parent directories, like most build tools do.
+     *
+     * @param entries The entries to write
+     * @param file    The jar file to write
+     * @return The jar file
+     * @throws IOException If the jar could not be written
+     */
+    public static File write(final Map<String, byte[]> entries, final File file) throws IOException {
+        if (file.getParentFile() != null) file.getParentFile().mkdirs();
+        try (ZipOutputStream zos = new ZipOutputStream(new FileOutputStream(file))) {
+            Set<String> directories = new HashSet<>();
+            for (Map.Entry<String, byte[]> entry : entries.entrySet()) {
+                String name = entry.getKey();
+                for (int i = name.indexOf('/'); i != -1; i = name.indexOf('/', i + 1)) {
+                    String directory = name.substring(0, i + 1);
+                    if (!directories.add(directory)) continue;
+                    zos.putNextEntry(new ZipEntry(directory));
+                    zos.closeEntry();
+                }
+                zos.putNextEntry(new ZipEntry(name));
+                zos.write(entry.getValue());
+                zos.closeEntry();
+            }
+        }
+        return file;
+    }
+
+    private static byte[] createClass(final Random random, final String className, final List<String> classNames) {
+        ClassWriter classWriter = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        String superName = random.nextInt(4) == 0 ? randomClass(random, classNames) : "java/lang/Object";
+        classWriter.visit(V1_8, ACC_PUBLIC | ACC_SUPER, className, null, superName, new String[]{randomClass(random, classNames)});
+        classWriter.visitSource(className.substring(className.lastIndexOf('/') + 1) + ".java", null);
+        classWriter.visitField(ACC_PUBLIC | ACC_STATIC | ACC_FINAL, "VERSION", "Ljava/lang/String;", null, "${version}").visitEnd();
+        classWriter.visitField(ACC_PRIVATE | ACC_STATIC, "name", "Ljava/lang/String;", null, null).visitEnd();
+        int fields = 1 + random.nextInt(6);
+        for (int i = 0; i < fields; i++) {
+            classWriter.visitField(ACC_PRIVATE, "field" + i, "L" + randomClass(random, classNames) + ";", null, null).visitEnd();
+        }
+
+        MethodVisitor constructor = classWriter.visitMethod(ACC_PUBLIC, "<init>", "()V", null, null);
+        constructor.visitCode();
+        constructor.visitVarInsn(ALOAD, 0);
+        constructor.visitMethodInsn(INVOKESPECIAL, superName, "<init>", "()V", false);
+        constructor.visitInsn(RETURN);
+        constructor.visitMaxs(0, 0);
+        constructor.visitEnd();
+
+        int methods = 1 + random.nextInt(8);
+        for (int i = 0; i < methods; i++) {
+            //Straight code without branches, so no stack map frames are required
+            String target = randomClass(random, classNames);
+            MethodVisitor method = classWriter.visitMethod(ACC_PUBLIC | ACC_STATIC, "method" + i, "(L" + target + ";)L" + target + ";", null, null);
+            method.visitCode();
+            method.visitLdcInsn(switch (random.nextInt(4)) {
+                case 0 -> "Version ${version}";
+                case 1 -> randomClass(random, classNames).replace('/', '.');
+                case 2 -> "L" + randomClass(random, classNames) + ";";
+                default -> "Some message " + random.nextInt(1000);
+            });
+            method.visitFieldInsn(PUTSTATIC, className, "name", "Ljava/lang/String;");
+            method.visitVarInsn(ALOAD, 0);
+            method.visitMethodInsn(INVOKESTATIC, target, "method0", "(L" + target + ";)L" + target + ";", false);
+            method.visitInsn(ARETURN);
+            method.visitMaxs(0, 0);
+            method.visitEnd();
+        }
+        classWriter.visitEnd();
+        return classWriter.toByteArray();
+    }
+
+    private static String randomClass(final Random random, final List<String> classNames) {
+        return classNames.get(random.nextInt(classNames.size()));
+    }
+
+    private static byte[] text(final String... lines) {
+        return (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,54 @@
+package net.lenni0451.jartransformer.benchmark;
+
+import net.lenni0451.jartransformer.transformers.EntryProcessor;
+import net.lenni0451.jartransformer.transformers.EntryTransformer;
+import net.lenni0451.jartransformer.transformers.TransformEntry;
+import org.gradle.testfixtures.ProjectBuilder;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import org.slf4j.helpers.NOPLogger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Processes all entries of a jar in memory with a single transformer.<br>
+ * Reading and writing the jar is not included, see {@link PipelineBenchmark} for the whole transformation.
+ */
+@State(Scope.Benchmark)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class TransformerBenchmark {
+
+    @Param({"1000", "10000", "50000"})
+    public int classes;
+
+    @Param({"exclude", "repackage", "access", "stringReplace"})
+    public String transformer;
+
+    private List<Map.Entry<String, byte[]>> entries;
+    private EntryTransformer entryTransformer;
+
+    @Setup
+    public void setup() {
+        Map<String, byte[]> generated = SyntheticJars.generate(this.classes, 0);
+        this.entries = new ArrayList<>(generated.entrySet());
+        this.entryTransformer = BenchmarkTransformers.create(ProjectBuilder.builder().build(), this.transformer, BenchmarkTransformers.findAccessClass(generated));
+    }
+
+    @Benchmark
+    public void process(final Blackhole blackhole) throws Throwable {
+        EntryProcessor processor = this.entryTransformer.createProcessor(NOPLogger.NOP_LOGGER);
+        for (Map.Entry<String, byte[]> generated : this.entries) {
+            TransformEntry entry = new TransformEntry(generated.getKey(), false, generated::getValue);
+            processor.process(entry);
+            if (entry.isDeleted()) continue;
+            entry.flush();
+            blackhole.consume(entry.getName());
+            blackhole.consume(entry.getContent());
+        }
+        processor.finish();
+    }
+
+}
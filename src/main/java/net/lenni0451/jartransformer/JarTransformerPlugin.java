@@ -4,8 +4,11 @@ import net.lenni0451.jartransformer.extensions.JarMergerExtension;
 import net.lenni0451.jartransformer.extensions.JarTransformerExtension;
 import net.lenni0451.jartransformer.tasks.JarMergerTask;
 import net.lenni0451.jartransformer.tasks.JarTransformTask;
+import net.lenni0451.jartransformer.tasks.WorkerIsolation;
+import net.lenni0451.jartransformer.transformers.EntryCacheService;
 import net.lenni0451.jartransformer.transformers.SpecializedTransformer;
 import net.lenni0451.jartransformer.transformers.Transformer;
+import net.lenni0451.jartransformer.transformers.base.BaseTransformer;
 import net.lenni0451.jartransformer.transformers.base.DependencyTransformer;
 import net.lenni0451.jartransformer.transformers.base.JarTransformer;
 import net.lenni0451.jartransformer.transforms.DependencyTransformAction;
@@ -14,100 +17,117 @@ import org.gradle.api.Project;
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.artifacts.ModuleDependency;
 import org.gradle.api.artifacts.type.ArtifactTypeDefinition;
+import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.TaskProvider;
+import org.gradle.build.event.BuildEventsListenerRegistry;
 import org.gradle.jvm.tasks.Jar;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import javax.inject.Inject;
 import java.util.List;
 import java.util.Map;
 
 public class JarTransformerPlugin implements Plugin<Project> {
 
+    private static final long DEFAULT_ENTRY_CACHE_SIZE = 256L * 1024 * 1024;
+
+    private final BuildEventsListenerRegistry buildEventsListenerRegistry;
+
+    @Inject
+    public JarTransformerPlugin(final BuildEventsListenerRegistry buildEventsListenerRegistry) {
+        this.buildEventsListenerRegistry = buildEventsListenerRegistry;
+    }
+
     @Override
     public void apply(Project target) {
         JarMergerExtension jarMergerExtension = target.getExtensions().create("jarMerger", JarMergerExtension.class);
-        target.afterEvaluate(project -> {
-            if (jarMergerExtension.getFileName().isPresent()) {
-                TaskProvider<JarMergerTask> jarMergerTask = project.getTasks().register("jarMerger", JarMergerTask.class);
-                jarMergerTask.configure(task -> {
-                    task.getProjectJar().set(project.getTasks().named("jar", Jar.class).flatMap(Jar::getArchiveFile));
-                    task.getInputFiles().from(jarMergerExtension.getConfiguration().get().getIncoming().getArtifacts().getArtifactFiles());
-                    task.getOutputJar().set(jarMergerExtension.getDestinationDirectory().file(jarMergerExtension.getFileName()));
-                    task.getDuplicatesStrategy().set(jarMergerExtension.getDuplicatesStrategy());
-                    task.getExcludes().set(jarMergerExtension.getExcludes());
-                    task.getMergeServices().set(jarMergerExtension.getMergeServices());
-                    task.getMergeLog4jPlugins().set(jarMergerExtension.getMergeLog4jPlugins());
-                });
-                project.getTasks().named("assemble").configure(task -> task.dependsOn(jarMergerTask));
-            }
+        TaskProvider<JarMergerTask> jarMergerTask = target.getTasks().register("jarMerger", JarMergerTask.class, task -> {
+            task.getProjectJar().set(target.getTasks().named("jar", Jar.class).flatMap(Jar::getArchiveFile));
+            task.getInputFiles().from(jarMergerExtension.getConfiguration().map(configuration -> configuration.getIncoming().getArtifacts().getArtifactFiles()));
+            task.getOutputJar().set(jarMergerExtension.getDestinationDirectory().file(jarMergerExtension.getFileName()));
+            task.getDuplicatesStrategy().set(jarMergerExtension.getDuplicatesStrategy());
+            task.getExcludes().set(jarMergerExtension.getExcludes());
+            task.getMergeServices().set(jarMergerExtension.getMergeServices());
+            task.getMergeLog4jPlugins().set(jarMergerExtension.getMergeLog4jPlugins());
+            task.getParallelism().set(jarMergerExtension.getParallelism());
+        });
+        //The merger is only part of the build if a file name is set
+        target.getTasks().named(name -> name.equals("assemble")).configureEach(task -> {
+            task.dependsOn(jarMergerExtension.getFileName().map(fileName -> List.of(jarMergerTask)).orElse(List.of()));
         });
 
         JarTransformerExtension jarTransformerExtension = target.getExtensions().create("jarTransformer", JarTransformerExtension.class);
-        Map<Class<?>, SpecializedTransformerList<?>> specializedTransformers = new HashMap<>();
+        Provider<EntryCacheService> entryCacheService = target.getGradle().getSharedServices().registerIfAbsent(EntryCacheService.NAME, EntryCacheService.class, spec -> {
+        });
+        this.buildEventsListenerRegistry.onTaskCompletion(entryCacheService);
+        int maxWorkers = target.getGradle().getStartParameter().getMaxWorkerCount();
         jarTransformerExtension.getDependencyTransformers().all(dependencyTransformer -> {
-            this.applyDependencyTransformer(target, dependencyTransformer, specializedTransformers);
+            dependencyTransformer.getParallelism().convention(maxWorkers);
+            this.setEntryCacheConventions(target, dependencyTransformer);
+            this.applyDependencyTransformer(target, dependencyTransformer);
+            dependencyTransformer.allTransformers(transformer -> this.applySpecialized(target, transformer, dependencyTransformer));
         });
         jarTransformerExtension.getJarTransformers().all(jarTransformer -> {
-            this.applyJarTransformer(target, jarTransformer, specializedTransformers);
-        });
-        target.afterEvaluate(project -> {
-            for (SpecializedTransformerList<?> specializedTransformerList : specializedTransformers.values()) {
-                specializedTransformerList.invoke(project);
-            }
+            jarTransformer.getParallelism().convention(maxWorkers);
+            jarTransformer.getWorkerIsolation().convention(WorkerIsolation.NONE);
+            this.setEntryCacheConventions(target, jarTransformer);
+            this.applyJarTransformer(target, jarTransformer);
+            jarTransformer.allTransformers(transformer -> this.applySpecialized(target, transformer, jarTransformer));
         });
+        this.markTransformedDependencies(target, jarTransformerExtension);
     }
 
-    private void applyDependencyTransformer(final Project project, final DependencyTransformer dependencyTransformer, final Map<Class<?>, SpecializedTransformerList<?>> specializedTransformers) {
-        Configuration configuration = dependencyTransformer.getConfiguration().get();
-        String jarType = "dependencyTransform-" + configuration.getName();
+    private void setEntryCacheConventions(final Project project, final BaseTransformer transformer) {
+        //The cache is opt-in, only the size has a default once a directory is set
+        transformer.getEntryCacheSize().convention(DEFAULT_ENTRY_CACHE_SIZE);
+        //The service is shared by all projects, so every project adds its caches to the registered parameters
+        EntryCacheService.Parameters parameters = (EntryCacheService.Parameters) project.getGradle().getSharedServices().getRegistrations().getByName(EntryCacheService.NAME).getParameters();
+        parameters.getCaches().putAll(transformer.getEntryCacheDirectory().zip(transformer.getEntryCacheSize(), (directory, size) -> Map.of(directory.getAsFile().getAbsolutePath(), size)).orElse(Map.of()));
+    }
 
-        configuration.getAllDependencies().all(dependency -> {
-            if (dependency instanceof ModuleDependency moduleDependency) {
-                moduleDependency.attributes(attributeContainer -> attributeContainer.attribute(ArtifactTypeDefinition.ARTIFACT_TYPE_ATTRIBUTE, jarType));
+    private void markTransformedDependencies(final Project project, final JarTransformerExtension jarTransformerExtension) {
+        //The configuration may be set after the transformer has been registered, so the dependencies are only marked when they are resolved
+        project.getConfigurations().configureEach(configuration -> configuration.withDependencies(dependencies -> {
+            for (DependencyTransformer dependencyTransformer : jarTransformerExtension.getDependencyTransformers()) {
+                Configuration transformedConfiguration = dependencyTransformer.getConfiguration().getOrNull();
+                if (transformedConfiguration == null || !transformedConfiguration.getHierarchy().contains(configuration)) continue;
+                String jarType = getJarType(dependencyTransformer);
+                dependencies.withType(ModuleDependency.class).configureEach(moduleDependency -> {
+                    moduleDependency.attributes(attributeContainer -> attributeContainer.attribute(ArtifactTypeDefinition.ARTIFACT_TYPE_ATTRIBUTE, jarType));
+                });
             }
-        });
-        project.getAllprojects().forEach(p -> {
-            p.getDependencies().registerTransform(DependencyTransformAction.class, transform -> {
-                transform.getParameters().getTransformers().set(dependencyTransformer.getTransformers());
-                transform.getFrom().attribute(ArtifactTypeDefinition.ARTIFACT_TYPE_ATTRIBUTE, ArtifactTypeDefinition.JAR_TYPE);
-                transform.getTo().attribute(ArtifactTypeDefinition.ARTIFACT_TYPE_ATTRIBUTE, jarType);
-            });
-        });
+        }));
+    }
+
+    private void applyDependencyTransformer(final Project project, final DependencyTransformer dependencyTransformer) {
+        String jarType = getJarType(dependencyTransformer);
 
-        this.checkSpecializedTransformers(dependencyTransformer.getTransformers().get(), specializedTransformers, dependencyTransformer);
+        //The dependencies are only marked in configurations of this project, so the transform only has to be registered here
+        //Only the transformers are inputs of the transform, which lets Gradle reuse the transformed artifacts for all consumers
+        project.getDependencies().registerTransform(DependencyTransformAction.class, transform -> {
+            transform.getParameters().getTransformerName().set(dependencyTransformer.getName());
+            transform.getParameters().getTransformers().set(dependencyTransformer.getTransformers());
+            transform.getParameters().getParallelism().set(dependencyTransformer.getParallelism());
+            transform.getParameters().getEntryCacheDirectory().set(dependencyTransformer.getEntryCacheDirectory());
+            transform.getParameters().getEntryCacheSize().set(dependencyTransformer.getEntryCacheSize());
+            transform.getParameters().getReportDirectory().set(dependencyTransformer.getReportDirectory());
+            transform.getFrom().attribute(ArtifactTypeDefinition.ARTIFACT_TYPE_ATTRIBUTE, ArtifactTypeDefinition.JAR_TYPE);
+            transform.getTo().attribute(ArtifactTypeDefinition.ARTIFACT_TYPE_ATTRIBUTE, jarType);
+        });
     }
 
-    private void applyJarTransformer(final Project project, final JarTransformer jarTransformer, final Map<Class<?>, SpecializedTransformerList<?>> specializedTransformers) {
-        TaskProvider<JarTransformTask> task = project.getTasks().register("jarTransform-" + jarTransformer.getInputFile().get().getAsFile().getName(), JarTransformTask.class, thiz -> {
+    private void applyJarTransformer(final Project project, final JarTransformer jarTransformer) {
+        TaskProvider<JarTransformTask> task = project.getTasks().register("jarTransform-" + jarTransformer.getName().get(), JarTransformTask.class, thiz -> {
             thiz.getJarTransformer().set(jarTransformer);
         });
-        project.getTasks().matching(t -> t.getName().equals("build")).all(t -> t.finalizedBy(task));
-
-        this.checkSpecializedTransformers(jarTransformer.getTransformers().get(), specializedTransformers, jarTransformer);
+        project.getTasks().named(name -> name.equals("build")).configureEach(t -> t.finalizedBy(task));
     }
 
-    private void checkSpecializedTransformers(final List<Transformer> transformers, final Map<Class<?>, SpecializedTransformerList<?>> specializedTransformers, final Object context) {
-        for (Transformer transformer : transformers) {
-            if (!(transformer instanceof SpecializedTransformer<?> specializedTransformer)) continue;
-            SpecializedTransformerList<?> list = specializedTransformers.computeIfAbsent(specializedTransformer.getClass(), k -> new SpecializedTransformerList(k, new ArrayList<>(), new ArrayList<>()));
-            list.add(specializedTransformer, context);
-        }
+    private static String getJarType(final DependencyTransformer dependencyTransformer) {
+        return "dependencyTransform-" + dependencyTransformer.getName().get();
     }
 
-
-    private record SpecializedTransformerList<T extends SpecializedTransformer<T>>(Class<T> type, List<T> transformers, List<Object> contexts) {
-        public void add(final SpecializedTransformer<?> transformer, final Object context) {
-            if (!this.type.isInstance(transformer)) {
-                throw new IllegalArgumentException("Transformer " + transformer.getClass().getSimpleName() + " is not an instance of " + this.type.getName());
-            }
-            this.transformers.add(this.type.cast(transformer));
-            this.contexts.add(context);
-        }
-
-        public void invoke(final Project project) {
-            this.transformers.get(0).applySpecialized(project, this.transformers, this.contexts);
-        }
+    private void applySpecialized(final Project project, final Transformer transformer, final BaseTransformer context) {
+        if (transformer instanceof SpecializedTransformer specializedTransformer) specializedTransformer.applySpecialized(project, context);
     }
 
 }
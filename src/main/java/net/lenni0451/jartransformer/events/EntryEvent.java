@@ -0,0 +1,46 @@
+package net.lenni0451.jartransformer.events;
+
+import jdk.jfr.*;
+
+/**
+ * A single entry processed by an entry transformer.<br>
+ * The phase is {@code transform} for the processors of the transformers, {@code write} for the deferred class visitors
+ * and the serialization of modified classes, and {@code cache} for loading the result of the class visitors from the entry cache.
+ */
+@Name("net.lenni0451.jartransformer.Entry")
+@Label("Entry")
+@Category({"JarTransformer"})
+@Description("An entry of a jar processed by a transformer")
+@StackTrace(false)
+public class EntryEvent extends Event {
+
+    @Label("Task")
+    public String task;
+
+    @Label("Jar")
+    public String jar;
+
+    @Label("Entry")
+    public String entry;
+
+    @Label("Transformer")
+    public String transformer;
+
+    @Label("Phase")
+    public String phase;
+
+    @Label("Classes Parsed")
+    public int classesParsed;
+
+    @Label("Classes Written")
+    public int classesWritten;
+
+    @Label("Bytes Read")
+    @DataAmount
+    public long bytesRead;
+
+    @Label("Bytes Written")
+    @DataAmount
+    public long bytesWritten;
+
+}
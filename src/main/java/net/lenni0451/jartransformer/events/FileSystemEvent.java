@@ -0,0 +1,29 @@
+package net.lenni0451.jartransformer.events;
+
+import jdk.jfr.*;
+
+/**
+ * A zip file system opened or closed for the transformers.<br>
+ * Closing the file system writes all changes back to the jar.
+ */
+@Name("net.lenni0451.jartransformer.FileSystem")
+@Label("Zip File System")
+@Category({"JarTransformer"})
+@Description("A zip file system of a jar opened or closed")
+@StackTrace(false)
+public class FileSystemEvent extends Event {
+
+    @Label("Task")
+    public String task;
+
+    @Label("Jar")
+    public String jar;
+
+    @Label("Phase")
+    public String phase;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+}
@@ -0,0 +1,32 @@
+package net.lenni0451.jartransformer.events;
+
+import jdk.jfr.*;
+
+/**
+ * An input jar processed by the merger.<br>
+ * The phase is {@code read} for reading the central directory and the merged entries, and {@code write} for copying the entries to the output.
+ */
+@Name("net.lenni0451.jartransformer.Merge")
+@Label("Merge")
+@Category({"JarTransformer"})
+@Description("An input jar read or copied by the jar merger")
+@StackTrace(false)
+public class MergeEvent extends Event {
+
+    @Label("Task")
+    public String task;
+
+    @Label("Jar")
+    public String jar;
+
+    @Label("Phase")
+    public String phase;
+
+    @Label("Entries")
+    public long entries;
+
+    @Label("Bytes")
+    @DataAmount
+    public long bytes;
+
+}
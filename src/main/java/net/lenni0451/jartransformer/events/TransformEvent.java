@@ -0,0 +1,36 @@
+package net.lenni0451.jartransformer.events;
+
+import jdk.jfr.*;
+
+/**
+ * A transformer applied to a jar.<br>
+ * Entry transformers which run in a single pass over the jar are recorded as one event.
+ */
+@Name("net.lenni0451.jartransformer.Transform")
+@Label("Transform")
+@Category({"JarTransformer"})
+@Description("A transformer or a pass of entry transformers applied to a jar")
+@StackTrace(false)
+public class TransformEvent extends Event {
+
+    @Label("Task")
+    public String task;
+
+    @Label("Jar")
+    public String jar;
+
+    @Label("Transformers")
+    public String transformers;
+
+    @Label("Entries")
+    public long entries;
+
+    @Label("Bytes Read")
+    @DataAmount
+    public long bytesRead;
+
+    @Label("Bytes Written")
+    @DataAmount
+    public long bytesWritten;
+
+}
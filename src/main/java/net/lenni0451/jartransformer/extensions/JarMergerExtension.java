@@ -15,12 +15,13 @@ public abstract class JarMergerExtension {
 
     @Inject
     public JarMergerExtension(final Project project) {
-        this.getConfiguration().convention(project.getConfigurations().getByName("runtimeClasspath"));
+        this.getConfiguration().convention(project.provider(() -> project.getConfigurations().getByName("runtimeClasspath")));
         this.getDestinationDirectory().convention(project.getLayout().getBuildDirectory().dir("libs"));
         this.getDuplicatesStrategy().convention(DuplicatesStrategy.WARN);
         this.getExcludes().convention(Set.of("META-INF/*.SF", "META-INF/*.DSA", "META-INF/*.RSA", "module-info.class"));
         this.getMergeServices().convention(true);
         this.getMergeLog4jPlugins().convention(true);
+        this.getParallelism().convention(project.getGradle().getStartParameter().getMaxWorkerCount());
     }
 
     public abstract Property<Configuration> getConfiguration();
@@ -38,4 +39,6 @@ public abstract class JarMergerExtension {
 
     public abstract Property<Boolean> getMergeLog4jPlugins();
 
+    public abstract Property<Integer> getParallelism();
+
 }
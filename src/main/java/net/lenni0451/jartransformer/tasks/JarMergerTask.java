@@ -1,10 +1,11 @@
 package net.lenni0451.jartransformer.tasks;
 
-import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
-import net.lenni0451.jartransformer.utils.FileSystemUtils;
+import net.lenni0451.jartransformer.events.MergeEvent;
+import net.lenni0451.jartransformer.utils.ExcludeMatcher;
 import net.lenni0451.jartransformer.utils.Log4JPluginCache;
-import net.lenni0451.jartransformer.utils.PatternUtils;
+import net.lenni0451.jartransformer.utils.RawZipFile;
+import net.lenni0451.jartransformer.utils.RawZipOutput;
 import org.gradle.api.DefaultTask;
 import org.gradle.api.file.ConfigurableFileCollection;
 import org.gradle.api.file.DuplicatesStrategy;
@@ -13,25 +14,23 @@ import org.gradle.api.provider.Property;
 import org.gradle.api.provider.SetProperty;
 import org.gradle.api.tasks.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.net.URISyntaxException;
-import java.nio.file.FileSystem;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.Enumeration;
-import java.util.Optional;
-import java.util.Set;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
-import java.util.regex.Pattern;
-import java.util.stream.Collectors;
+import java.util.*;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 @Slf4j
 @CacheableTask
 public abstract class JarMergerTask extends DefaultTask {
 
+    private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
     @InputFile
     @PathSensitive(PathSensitivity.RELATIVE)
     public abstract RegularFileProperty getProjectJar();
@@ -55,140 +54,286 @@ public abstract class JarMergerTask extends DefaultTask {
     @Input
     public abstract Property<Boolean> getMergeLog4jPlugins();
 
+    /**
+     * The amount of input jars which are read at the same time.<br>
+     * The entries are always added in the order of the input files, so the result does not depend on the parallelism.
+     */
+    @Internal
+    public abstract Property<Integer> getParallelism();
+
     @TaskAction
-    public void run() throws IOException, URISyntaxException {
+    public void run() throws IOException {
         File outputFile = this.getOutputJar().get().getAsFile();
         log.info("Start merging jar files into {}", outputFile.getName());
         if (outputFile.getParentFile() != null) outputFile.getParentFile().mkdirs();
-        Set<Pattern> excludes = this.getExcludes().get().stream().map(PatternUtils::globToRegex).collect(Collectors.toSet());
-
-        try (FileSystem fileSystem = FileSystemUtils.openCreating(outputFile)) {
-            JarEntryAccess fileSystemAccess = new JarEntryAccess() {
-                @Override
-                public void write(String name, byte[] content) throws IOException {
-                    Path path = fileSystem.getPath(name);
-                    Path parent = path.getParent();
-                    if (parent != null) Files.createDirectories(path.getParent());
-                    Files.write(path, content);
-                }
+        ExcludeMatcher excludes = ExcludeMatcher.ofGlobs(this.getExcludes().get());
 
-                @Override
-                public Optional<JarEntryContentSupplier> read(String name) {
-                    Path path = fileSystem.getPath(name);
-                    if (!Files.exists(path)) return Optional.empty();
-                    return Optional.of(() -> Files.readAllBytes(path));
+        List<File> inputFiles = new ArrayList<>();
+        inputFiles.add(this.getProjectJar().get().getAsFile());
+        inputFiles.addAll(this.getInputFiles().getFiles());
+        //Only the central directories are read to decide which entries end up in the output
+        //Merged entries are accumulated in memory and serialized once all jars have been read
+        Map<String, SourceEntry> entries = new LinkedHashMap<>();
+        Map<String, MergedEntry> mergedEntries = new HashMap<>();
+        Set<String> order = new LinkedHashSet<>();
+        boolean mergeServices = this.getMergeServices().get();
+        boolean mergeLog4jPlugins = this.getMergeLog4jPlugins().get();
+        int identicalDuplicates = 0;
+        ForkJoinPool pool = new ForkJoinPool(Math.max(1, Math.min(this.getParallelism().getOrElse(1), inputFiles.size())));
+        //The jars stay open after their central directory has been read, so the copied entries can be written without opening them again
+        List<Future<JarContents>> reads = new ArrayList<>();
+        try {
+            //The jars are read in parallel, but committed in order to keep the duplicate handling deterministic
+            for (File inputFile : inputFiles) {
+                reads.add(pool.submit(() -> this.readJarFile(inputFile, excludes, mergeServices, mergeLog4jPlugins)));
+            }
+            for (int i = 0; i < reads.size(); i++) {
+                JarContents contents;
+                try {
+                    contents = reads.get(i).get();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while reading " + inputFiles.get(i).getName(), e);
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof IOException ioException) throw ioException;
+                    throw new IOException("Failed to read " + inputFiles.get(i).getName(), e.getCause());
                 }
-            };
-            this.processJarFile(this.getProjectJar().get().getAsFile(), fileSystemAccess, excludes);
-            for (File inputFile : this.getInputFiles()) {
-                this.processJarFile(inputFile, fileSystemAccess, excludes);
+                identicalDuplicates += this.commitJarFile(contents, entries, mergedEntries, order);
             }
+            if (identicalDuplicates > 0) log.info("Skipped {} identical duplicate entries", identicalDuplicates);
+
+            this.writeJarFile(outputFile, order, entries, mergedEntries);
+        } finally {
+            pool.shutdownNow();
+            this.closeJarFiles(reads);
         }
 
         log.info("Successfully created merged jar: {}", outputFile.getAbsolutePath());
     }
 
-    private void iterateFiles(final File file, final JarEntryProcessor processor) throws IOException {
-        try (JarFile jarFile = new JarFile(file)) {
-            Enumeration<JarEntry> entries = jarFile.entries();
-            while (entries.hasMoreElements()) {
-                JarEntry entry = entries.nextElement();
-                if (entry.isDirectory()) continue;
-                String name = entry.getName();
-                processor.process(entry, name, () -> {
-                    try (InputStream is = jarFile.getInputStream(entry)) {
-                        return is.readAllBytes();
-                    }
-                });
+    private void writeJarFile(final File outputFile, final Set<String> order, final Map<String, SourceEntry> entries, final Map<String, MergedEntry> mergedEntries) throws IOException {
+        //The entries are written in the order they were committed, only the manifest has to be first to be found by a JarInputStream
+        List<String> names = new ArrayList<>(order);
+        if (names.remove(MANIFEST)) names.add(0, MANIFEST);
+        MergeEvent event = new MergeEvent();
+        event.begin();
+        long bytes = 0;
+        try (RawZipOutput output = new RawZipOutput(Files.newOutputStream(outputFile.toPath()))) {
+            Set<String> directories = new HashSet<>();
+            for (String name : names) {
+                this.writeDirectories(output, directories, name);
+                SourceEntry entry = entries.get(name);
+                if (entry != null) {
+                    output.writeRaw(entry.zipFile(), entry.entry());
+                    bytes += entry.entry().compressedSize();
+                } else {
+                    byte[] content = mergedEntries.get(name).serialize();
+                    output.write(name, content);
+                    bytes += content.length;
+                }
+            }
+        }
+        this.record(event, outputFile, "write", names.size(), bytes);
+    }
+
+    private void closeJarFiles(final List<Future<JarContents>> reads) throws IOException {
+        //Jars which are still being read are waited for, so no jar is left open if the merge failed
+        for (Future<JarContents> read : reads) {
+            JarContents contents;
+            try {
+                contents = read.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                continue;
+            } catch (ExecutionException | CancellationException e) {
+                continue;
             }
+            contents.zipFile().close();
         }
     }
 
-    private void processJarFile(final File inputFile, final JarEntryAccess access, final Set<Pattern> excludes) throws IOException {
+    private JarContents readJarFile(final File inputFile, final ExcludeMatcher excludes, final boolean mergeServices, final boolean mergeLog4jPlugins) throws IOException {
         log.debug("Processing: {}", inputFile.getName());
-        this.iterateFiles(inputFile, (entry, name, content) -> {
-            if (excludes.stream().anyMatch(pattern -> pattern.matcher(name).matches())) {
-                log.debug("Skipping excluded entry: {}", name);
-                return;
+        MergeEvent event = new MergeEvent();
+        event.begin();
+        List<RawZipFile.Entry> entries = new ArrayList<>();
+        List<MergedContent> mergedContents = new ArrayList<>();
+        RawZipFile zipFile = new RawZipFile(inputFile);
+        try {
+            for (RawZipFile.Entry entry : zipFile.getEntries()) {
+                if (entry.isDirectory()) continue;
+                String name = entry.name();
+                if (excludes.matches(name)) {
+                    log.debug("Skipping excluded entry: {}", name);
+                    continue;
+                }
+                if ((mergeServices && this.isService(name)) || (mergeLog4jPlugins && this.isLog4JPlugins(name))) {
+                    mergedContents.add(new MergedContent(name, zipFile.read(entry)));
+                } else {
+                    entries.add(entry);
+                }
             }
-            if (this.getMergeServices().get() && this.processService(name, access, content)) {
+        } catch (Throwable t) {
+            zipFile.close();
+            throw t;
+        }
+        this.record(event, inputFile, "read", entries.size() + mergedContents.size(), inputFile.length());
+        return new JarContents(inputFile, zipFile, entries, mergedContents);
+    }
+
+    private void record(final MergeEvent event, final File inputFile, final String phase, final long entries, final long bytes) {
+        if (!event.shouldCommit()) return;
+        event.task = this.getName();
+        event.jar = inputFile.getName();
+        event.phase = phase;
+        event.entries = entries;
+        event.bytes = bytes;
+        event.commit();
+    }
+
+    private int commitJarFile(final JarContents contents, final Map<String, SourceEntry> entries, final Map<String, MergedEntry> mergedEntries, final Set<String> order) throws IOException {
+        String fileName = contents.file().getName();
+        for (MergedContent mergedContent : contents.mergedContents()) {
+            String name = mergedContent.name();
+            order.add(name);
+            if (this.isService(name)) {
+                mergedEntries.computeIfAbsent(name, k -> new ServiceEntry()).add(mergedContent.content());
                 log.debug("Merged service entry: {}", name);
-                return;
-            }
-            if (this.getMergeLog4jPlugins().get() && this.processLog4JPlugins(name, access, content)) {
+            } else {
+                mergedEntries.computeIfAbsent(name, k -> new Log4JPluginsEntry()).add(mergedContent.content());
                 log.debug("Merged Log4J plugins entry: {}", name);
-                return;
             }
-
-            boolean isDuplicate = access.read(name).isPresent();
-            if (isDuplicate) {
+        }
+        int identicalDuplicates = 0;
+        for (RawZipFile.Entry entry : contents.entries()) {
+            String name = entry.name();
+            SourceEntry existing = entries.get(name);
+            if (existing == null) {
+                entries.put(name, new SourceEntry(contents.file(), contents.zipFile(), entry));
+                order.add(name);
+            } else if (existing.entry().crc() == entry.crc() && existing.entry().size() == entry.size()) {
+                //The content is the same, so it does not matter which entry is kept
+                log.debug("Identical duplicate entry found in {} and {}: {}. Skipping this entry.", existing.file().getName(), fileName, name);
+                identicalDuplicates++;
+            } else {
+                String existingName = existing.file().getName();
                 switch (this.getDuplicatesStrategy().get()) {
                     case INCLUDE -> {
-                        log.debug("Duplicate entry found in {}: {}. Overwriting with new content.", inputFile.getName(), name);
-                        access.write(name, content.get());
+                        log.debug("Duplicate entry found in {} and {}: {}. Overwriting with new content.", existingName, fileName, name);
+                        //The entry keeps the position of the overwritten entry
+                        entries.put(name, new SourceEntry(contents.file(), contents.zipFile(), entry));
                     }
-                    case EXCLUDE -> log.debug("Duplicate entry found in {}: {}. Skipping this entry.", inputFile.getName(), name);
-                    case WARN -> log.warn("Duplicate entry found in {}: {}. Skipping this entry.", inputFile.getName(), name);
-                    case FAIL -> throw new IOException("Duplicate entry found in " + inputFile.getName() + ": " + name);
+                    case EXCLUDE -> log.debug("Duplicate entry found in {} and {}: {}. Skipping this entry.", existingName, fileName, name);
+                    case WARN -> log.warn("Duplicate entry found in {} and {}: {}. Skipping this entry.", existingName, fileName, name);
+                    case FAIL -> throw new IOException("Duplicate entry found in " + existingName + " and " + fileName + ": " + name);
                     default -> throw new UnsupportedOperationException("Unsupported duplicates strategy: " + this.getDuplicatesStrategy().get());
                 }
-            } else {
-                access.write(name, content.get());
             }
-        });
+        }
+        return identicalDuplicates;
     }
 
-    private boolean processService(final String name, final JarEntryAccess access, final JarEntryContentSupplier content) throws IOException {
-        if (!name.startsWith("META-INF/services/")) return false;
-
-        byte[] newContent = content.get();
-        byte[] existingContent = access.read(name).map(JarEntryContentSupplier::getOrThrow).orElse(null);
-        if (existingContent != null) {
-            byte[] mergedContent = new byte[existingContent.length + 1 + newContent.length];
-            System.arraycopy(existingContent, 0, mergedContent, 0, existingContent.length);
-            mergedContent[existingContent.length] = '\n'; // Add a newline to separate entries
-            System.arraycopy(newContent, 0, mergedContent, existingContent.length + 1, newContent.length);
-            access.write(name, mergedContent);
-            return true;
-        }
-        return false;
+    private boolean isService(final String name) {
+        return name.startsWith("META-INF/services/");
     }
 
-    private boolean processLog4JPlugins(final String name, final JarEntryAccess access, final JarEntryContentSupplier content) throws IOException {
-        if (!name.equals("META-INF/org/apache/logging/log4j/core/config/plugins/Log4j2Plugins.dat")) return false;
-
-        byte[] newContent = content.get();
-        byte[] existingContent = access.read(name).map(JarEntryContentSupplier::getOrThrow).orElse(null);
-        if (existingContent != null) {
-            Log4JPluginCache existingCache = Log4JPluginCache.deserialize(existingContent);
-            Log4JPluginCache newCache = Log4JPluginCache.deserialize(newContent);
-            existingCache.merge(newCache);
-            access.write(name, existingCache.serialize());
-            return true;
+    private boolean isLog4JPlugins(final String name) {
+        return name.equals("META-INF/org/apache/logging/log4j/core/config/plugins/Log4j2Plugins.dat");
+    }
+
+    private void writeDirectories(final RawZipOutput output, final Set<String> directories, final String name) throws IOException {
+        //Create the parent directories of all entries, like Files.createDirectories would
+        for (int i = name.indexOf('/'); i != -1; i = name.indexOf('/', i + 1)) {
+            String directory = name.substring(0, i + 1);
+            if (directories.add(directory)) output.writeDirectory(directory);
         }
-        return false;
     }
 
 
-    @FunctionalInterface
-    private interface JarEntryProcessor {
-        void process(final JarEntry entry, final String name, final JarEntryContentSupplier content) throws IOException;
+    /**
+     * The entries of an input file which should be added to the output.
+     *
+     * @param file           The input file
+     * @param zipFile        The opened input file, closed once the output has been written
+     * @param entries        The entries which are copied to the output
+     * @param mergedContents The contents of the entries which are merged with the other input files
+     */
+    private record JarContents(File file, RawZipFile zipFile, List<RawZipFile.Entry> entries, List<MergedContent> mergedContents) {
+    }
+
+    private record MergedContent(String name, byte[] content) {
+    }
+
+    /**
+     * An entry which should be copied to the output.
+     *
+     * @param file    The input file containing the entry
+     * @param zipFile The opened input file
+     * @param entry   The entry in the input file
+     */
+    private record SourceEntry(File file, RawZipFile zipFile, RawZipFile.Entry entry) {
+    }
+
+    /**
+     * An entry which is merged from all input files.<br>
+     * The content of every input file is added and the merged content is only serialized once.
+     */
+    private interface MergedEntry {
+        void add(final byte[] content) throws IOException;
+
+        byte[] serialize() throws IOException;
     }
 
-    @FunctionalInterface
-    private interface JarEntryContentSupplier {
-        byte[] get() throws IOException;
+    /**
+     * The service files of all input files are concatenated, separated by a line break.<br>
+     * Providers which have already been registered by a previous file are removed, comments and blank lines are kept as they are.
+     */
+    private static class ServiceEntry implements MergedEntry {
+        private final Set<String> providers = new HashSet<>();
+        private final ByteArrayOutputStream content = new ByteArrayOutputStream();
+        private boolean first = true;
+
+        @Override
+        public void add(final byte[] content) throws IOException {
+            String text = new String(content, StandardCharsets.UTF_8);
+            StringBuilder kept = new StringBuilder(text.length());
+            for (int start = 0, end; start < text.length(); start = end) {
+                end = text.indexOf('\n', start);
+                end = end == -1 ? text.length() : end + 1;
+                String line = text.substring(start, end);
+                int comment = line.indexOf('#');
+                String provider = (comment == -1 ? line : line.substring(0, comment)).trim();
+                if (provider.isEmpty() || this.providers.add(provider)) kept.append(line);
+            }
+            if (!this.first) this.content.write('\n');
+            this.first = false;
+            //Files without duplicate providers are copied byte for byte
+            this.content.write(kept.length() == text.length() ? content : kept.toString().getBytes(StandardCharsets.UTF_8));
+        }
 
-        @SneakyThrows
-        default byte[] getOrThrow() {
-            return this.get();
+        @Override
+        public byte[] serialize() {
+            return this.content.toByteArray();
         }
     }
 
-    private interface JarEntryAccess {
-        void write(final String name, final byte[] content) throws IOException;
+    private static class Log4JPluginsEntry implements MergedEntry {
+        private Log4JPluginCache cache;
 
-        Optional<JarEntryContentSupplier> read(final String name) throws IOException;
+        @Override
+        public void add(final byte[] content) throws IOException {
+            Log4JPluginCache cache = Log4JPluginCache.deserialize(content);
+            if (this.cache == null) {
+                this.cache = cache;
+            } else {
+                this.cache.merge(cache);
+            }
+        }
+
+        @Override
+        public byte[] serialize() throws IOException {
+            return this.cache.serialize();
+        }
     }
 
 }
@@ -7,11 +7,11 @@ import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.CacheableTask;
 import org.gradle.api.tasks.Nested;
 import org.gradle.api.tasks.TaskAction;
+import org.gradle.workers.WorkQueue;
+import org.gradle.workers.WorkerExecutor;
 
 import javax.inject.Inject;
 import java.io.File;
-import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
 
 @Slf4j
 @CacheableTask
@@ -31,8 +31,15 @@ public abstract class JarTransformTask extends DefaultTask {
     @Nested
     public abstract Property<JarTransformer> getJarTransformer();
 
+    @Inject
+    protected abstract WorkerExecutor getWorkerExecutor();
+
+    /**
+     * Submit the transformation to a worker.<br>
+     * The task returns before the transformation is done, so independent tasks of the same project can run in parallel.
+     */
     @TaskAction
-    public void run() throws Throwable {
+    public void run() {
         JarTransformer jarTransformer = this.getJarTransformer().get();
         File inputFile = jarTransformer.getInputFile().get().getAsFile();
         File outputFile = jarTransformer.getOutputFile().isPresent() ? jarTransformer.getOutputFile().get().getAsFile() : null;
@@ -43,20 +50,36 @@ public abstract class JarTransformTask extends DefaultTask {
             log.warn("Output file already exists and will be overwritten: {}", outputFile.getAbsolutePath());
         }
 
-        File file;
         if (inputFile.equals(outputFile) || outputFile == null) {
             //Repackaging in-place breaks the gradle jar cache
             //But it's still possible for convenience
             log.warn("Repackaging in-place is not recommended, consider changing the output file");
-            file = inputFile;
-        } else {
-            if (outputFile.getParentFile() != null) {
-                outputFile.getParentFile().mkdirs();
-            }
-            Files.copy(inputFile.toPath(), outputFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-            file = outputFile;
+            outputFile = inputFile;
+        } else if (outputFile.getParentFile() != null) {
+            outputFile.getParentFile().mkdirs();
         }
-        jarTransformer.apply(log, file);
+
+        File transformedFile = outputFile;
+        this.createWorkQueue(jarTransformer).submit(JarTransformWorkAction.class, parameters -> {
+            parameters.getTransformerName().set(jarTransformer.getName());
+            parameters.getTransformers().set(jarTransformer.getTransformers());
+            parameters.getInputFile().set(inputFile);
+            parameters.getOutputFile().set(transformedFile);
+            parameters.getParallelism().set(jarTransformer.getParallelism());
+            parameters.getEntryCacheDirectory().set(jarTransformer.getEntryCacheDirectory());
+            parameters.getEntryCacheSize().set(jarTransformer.getEntryCacheSize());
+            parameters.getReportDirectory().set(jarTransformer.getReportDirectory());
+        });
+    }
+
+    private WorkQueue createWorkQueue(final JarTransformer jarTransformer) {
+        return switch (jarTransformer.getWorkerIsolation().getOrElse(WorkerIsolation.NONE)) {
+            case NONE -> this.getWorkerExecutor().noIsolation();
+            case CLASSLOADER -> this.getWorkerExecutor().classLoaderIsolation();
+            case PROCESS -> this.getWorkerExecutor().processIsolation(spec -> {
+                if (jarTransformer.getWorkerMaxHeapSize().isPresent()) spec.getForkOptions().setMaxHeapSize(jarTransformer.getWorkerMaxHeapSize().get());
+            });
+        };
     }
 
 }
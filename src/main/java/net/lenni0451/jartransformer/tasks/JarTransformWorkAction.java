@@ -0,0 +1,57 @@
+package net.lenni0451.jartransformer.tasks;
+
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import net.lenni0451.jartransformer.transformers.EntryCache;
+import net.lenni0451.jartransformer.transformers.Transformer;
+import net.lenni0451.jartransformer.transformers.TransformerMetrics;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+
+import java.io.File;
+
+/**
+ * Applies the transformers of a jar transformation in a worker.<br>
+ * The parameters only contain the transformers and files, so they can be passed to an isolated classloader or worker process.
+ */
+@Slf4j
+public abstract class JarTransformWorkAction implements WorkAction<JarTransformWorkAction.Parameters> {
+
+    @Override
+    @SneakyThrows
+    public void execute() {
+        Parameters parameters = this.getParameters();
+        File input = parameters.getInputFile().get().getAsFile();
+        File output = parameters.getOutputFile().get().getAsFile();
+        EntryCache.Settings cache = EntryCache.Settings.of(parameters.getEntryCacheDirectory().getAsFile().getOrNull(), parameters.getEntryCacheSize().getOrElse(0L));
+        File reportDirectory = parameters.getReportDirectory().getAsFile().getOrNull();
+        TransformerMetrics metrics = new TransformerMetrics(parameters.getTransformerName().get(), input.getName(), reportDirectory != null);
+        Transformer.applyAll(log, input, output, parameters.getTransformers().get(), parameters.getParallelism().getOrElse(1), cache, metrics);
+        //A jar transformation task only transforms a single jar, so its summary is the total of the task
+        metrics.report(log, true, reportDirectory, input);
+    }
+
+
+    public static abstract class Parameters implements WorkParameters {
+        public abstract Property<String> getTransformerName();
+
+        public abstract ListProperty<Transformer> getTransformers();
+
+        public abstract RegularFileProperty getInputFile();
+
+        public abstract RegularFileProperty getOutputFile();
+
+        public abstract Property<Integer> getParallelism();
+
+        public abstract DirectoryProperty getEntryCacheDirectory();
+
+        public abstract Property<Long> getEntryCacheSize();
+
+        public abstract DirectoryProperty getReportDirectory();
+    }
+
+}
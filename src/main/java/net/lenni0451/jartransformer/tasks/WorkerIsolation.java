@@ -0,0 +1,22 @@
+package net.lenni0451.jartransformer.tasks;
+
+/**
+ * The isolation of the worker which runs a jar transformation.
+ */
+public enum WorkerIsolation {
+
+    /**
+     * Run the transformation in the Gradle daemon, sharing its classloader.
+     */
+    NONE,
+    /**
+     * Run the transformation in the Gradle daemon, but load the transformers in an isolated classloader.
+     */
+    CLASSLOADER,
+    /**
+     * Run the transformation in a separate worker process.<br>
+     * Worker processes are reused by later transformations and builds, so the JIT of the transformers stays warm.
+     */
+    PROCESS
+
+}
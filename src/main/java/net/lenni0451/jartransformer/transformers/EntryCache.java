@@ -0,0 +1,282 @@
+package net.lenni0451.jartransformer.transformers;
+
+import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Nested;
+import org.slf4j.Logger;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+/**
+ * A persistent cache for the deferred class visitors of stateless entry processors.<br>
+ * Only classes which got visitors from the processors are cached, all other entries are passed through as before.
+ * Results are keyed by a hash of the transformer fingerprint, the entry name and the class the visitors are applied to,
+ * so after a change of the input jar only the changed classes have to be parsed and written again.<br>
+ * Classes which are not changed by the visitors are stored as empty files.
+ * The cache is cleaned up once per build by the {@link EntryCacheService}.
+ */
+public class EntryCache {
+
+    private static final int FORMAT_VERSION = 2;
+    private static final long FILE_OVERHEAD = 512;
+    private static final long TOUCH_INTERVAL = TimeUnit.HOURS.toMillis(1);
+
+    /**
+     * Create a stable fingerprint of the given transformers.<br>
+     * It contains the class and all {@link Input} and {@link Nested} properties of every transformer
+     * and the location of the plugin, so a different plugin version doesn't reuse old results.
+     *
+     * @param transformers The transformers to fingerprint
+     * @return The fingerprint
+     */
+    public static byte[] fingerprint(final List<EntryTransformer> transformers) {
+        StringBuilder fingerprint = new StringBuilder().append(FORMAT_VERSION);
+        CodeSource codeSource = EntryCache.class.getProtectionDomain().getCodeSource();
+        if (codeSource != null) fingerprint.append('|').append(codeSource.getLocation());
+        for (EntryTransformer transformer : transformers) {
+            fingerprint.append('|');
+            appendValue(fingerprint, transformer);
+        }
+        return sha256().digest(fingerprint.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void appendValue(final StringBuilder fingerprint, @Nullable final Object value) {
+        if (value instanceof Provider<?> provider) {
+            appendValue(fingerprint, provider.getOrNull());
+        } else if (value instanceof Map<?, ?> map) {
+            Map<String, Object> sorted = new TreeMap<>();
+            map.forEach((key, entry) -> sorted.put(String.valueOf(key), entry));
+            fingerprint.append('{');
+            sorted.forEach((key, entry) -> {
+                fingerprint.append(key.length()).append(':').append(key).append('=');
+                appendValue(fingerprint, entry);
+                fingerprint.append(',');
+            });
+            fingerprint.append('}');
+        } else if (value instanceof Collection<?> collection) {
+            List<String> values = new ArrayList<>();
+            for (Object element : collection) {
+                StringBuilder elementFingerprint = new StringBuilder();
+                appendValue(elementFingerprint, element);
+                values.add(elementFingerprint.toString());
+            }
+            if (value instanceof Set<?>) Collections.sort(values);
+            fingerprint.append('[');
+            values.forEach(element -> fingerprint.append(element.length()).append(':').append(element).append(','));
+            fingerprint.append(']');
+        } else if (value instanceof Transformer) {
+            fingerprint.append(getDeclaredType(value.getClass()).getName()).append('{');
+            getProperties(value.getClass()).forEach((name, getter) -> {
+                fingerprint.append(name).append('=');
+                try {
+                    appendValue(fingerprint, getter.invoke(value));
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalStateException("Failed to read property " + name + " of " + value.getClass().getName(), e);
+                }
+                fingerprint.append(',');
+            });
+            fingerprint.append('}');
+        } else {
+            String string = String.valueOf(value);
+            fingerprint.append(string.length()).append(':').append(string);
+        }
+    }
+
+    private static Map<String, Method> getProperties(final Class<?> type) {
+        //Gradle generates subclasses of the transformers which don't have the annotations of the overridden getters
+        Map<String, Method> properties = new TreeMap<>();
+        for (Class<?> current = type; current != null; current = current.getSuperclass()) {
+            for (Method method : current.getDeclaredMethods()) {
+                if (method.getParameterCount() != 0) continue;
+                if (!method.isAnnotationPresent(Input.class) && !method.isAnnotationPresent(Nested.class)) continue;
+                properties.putIfAbsent(method.getName(), method);
+            }
+        }
+        return properties;
+    }
+
+    private static Class<?> getDeclaredType(final Class<?> type) {
+        Class<?> declaredType = type;
+        while (declaredType.getName().endsWith("_Decorated") && declaredType.getSuperclass() != null) declaredType = declaredType.getSuperclass();
+        return declaredType;
+    }
+
+    /**
+     * Evict the least recently used results until the cache is smaller than its maximum size.
+     *
+     * @param log       The logger to report the eviction to
+     * @param directory The directory of the cache
+     * @param maxSize   The maximum size of the cache in bytes
+     */
+    public static void evict(final Logger log, final Path directory, final long maxSize) {
+        if (!Files.isDirectory(directory)) return;
+        try {
+            List<CachedFile> files = new ArrayList<>();
+            try (Stream<Path> paths = Files.walk(directory)) {
+                for (Path path : (Iterable<Path>) paths::iterator) {
+                    try {
+                        BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+                        if (attributes.isRegularFile()) files.add(new CachedFile(path, attributes.size() + FILE_OVERHEAD, attributes.lastModifiedTime().toMillis()));
+                    } catch (NoSuchFileException ignored) {
+                        //Evicted by another build
+                    }
+                }
+            }
+            long size = files.stream().mapToLong(CachedFile::size).sum();
+            if (size <= maxSize) return;
+            files.sort(Comparator.comparingLong(CachedFile::lastUsed));
+            int evicted = 0;
+            for (CachedFile file : files) {
+                if (size <= maxSize) break;
+                Files.deleteIfExists(file.path());
+                size -= file.size();
+                evicted++;
+            }
+            log.info("Evicted {} entries from the entry cache {}", evicted, directory);
+        } catch (IOException | UncheckedIOException e) {
+            log.warn("Failed to clean up the entry cache {}", directory, e);
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+
+    private final Logger log;
+    private final Path directory;
+    private final byte[] fingerprint;
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    public EntryCache(final Logger log, final Settings settings, final byte[] fingerprint) {
+        this.log = log;
+        this.directory = settings.directory();
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Calculate the key of an entry with pending class visitors.
+     *
+     * @param entry The processed entry
+     * @return The key of the entry
+     * @throws IOException If the content could not be read
+     */
+    public String getKey(final TransformEntry entry) throws IOException {
+        MessageDigest digest = sha256();
+        digest.update(this.fingerprint);
+        digest.update(entry.getOriginalName().getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(entry.getUnvisitedContent());
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    /**
+     * Replace the pending class visitors of the entry with a cached result.
+     *
+     * @param key   The key of the entry
+     * @param entry The processed entry
+     * @return If a cached result was applied
+     */
+    public boolean load(final String key, final TransformEntry entry) {
+        Path file = this.getFile(key);
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            long now = System.currentTimeMillis();
+            if (now - attributes.lastModifiedTime().toMillis() > TOUCH_INTERVAL) {
+                //The modification time is used for the eviction, it's only updated once in a while to avoid a write for every hit
+                Files.setLastModifiedTime(file, FileTime.fromMillis(now));
+            }
+            entry.applyVisitorResult(attributes.size() == 0 ? null : Files.readAllBytes(file));
+            this.hits.incrementAndGet();
+            return true;
+        } catch (NoSuchFileException e) {
+            this.misses.incrementAndGet();
+            return false;
+        } catch (IOException e) {
+            this.log.debug("Failed to read cached entry {}", entry.getOriginalName(), e);
+            this.misses.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Store the result of the deferred class visitors.
+     *
+     * @param key     The key of the entry
+     * @param entry   The entry after applying the visitors
+     * @param changed If the visitors changed the class
+     */
+    public void store(final String key, final TransformEntry entry, final boolean changed) {
+        Path file = this.getFile(key);
+        Path tempFile = null;
+        try {
+            Files.createDirectories(file.getParent());
+            tempFile = Files.createTempFile(file.getParent(), key, ".tmp");
+            if (changed) Files.write(tempFile, entry.getContent());
+            //Other runs may read the cache at the same time, so the result is moved into place at once
+            Files.move(tempFile, file, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            this.log.debug("Failed to cache entry {}", entry.getOriginalName(), e);
+        } finally {
+            if (tempFile != null) {
+                try {
+                    Files.deleteIfExists(tempFile);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    /**
+     * Log the cache statistics.
+     */
+    public void finish() {
+        this.log.info("Entry cache: {} hits, {} misses", this.hits.get(), this.misses.get());
+    }
+
+    private Path getFile(final String key) {
+        return this.directory.resolve(key.substring(0, 2)).resolve(key.substring(2));
+    }
+
+
+    /**
+     * The settings of an entry cache.
+     *
+     * @param directory The directory to store the results in
+     * @param maxSize   The maximum size of the cache in bytes
+     */
+    public record Settings(Path directory, long maxSize) {
+        /**
+         * @param directory The directory of the cache or {@code null} if no directory is configured
+         * @param maxSize   The maximum size of the cache in bytes
+         * @return The settings or {@code null} if the cache is disabled
+         */
+        @Nullable
+        public static Settings of(@Nullable final File directory, final long maxSize) {
+            if (directory == null || maxSize <= 0) return null;
+            return new Settings(directory.toPath(), maxSize);
+        }
+    }
+
+    private record CachedFile(Path path, long size, long lastUsed) {
+    }
+
+}
@@ -0,0 +1,39 @@
+package net.lenni0451.jartransformer.transformers;
+
+import lombok.extern.slf4j.Slf4j;
+import org.gradle.api.provider.MapProperty;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+import org.gradle.tooling.events.FinishEvent;
+import org.gradle.tooling.events.OperationCompletionListener;
+
+import java.nio.file.Path;
+
+/**
+ * Cleans up the entry caches of all transformers once at the end of the build.<br>
+ * The service is registered as a task completion listener, so Gradle keeps it alive until the build is finished.
+ */
+@Slf4j
+public abstract class EntryCacheService implements BuildService<EntryCacheService.Parameters>, OperationCompletionListener, AutoCloseable {
+
+    public static final String NAME = "jarTransformerEntryCache";
+
+    @Override
+    public void onFinish(FinishEvent event) {
+        //Only listening to the tasks to be closed at the end of the build
+    }
+
+    @Override
+    public void close() {
+        this.getParameters().getCaches().get().forEach((directory, maxSize) -> EntryCache.evict(log, Path.of(directory), maxSize));
+    }
+
+
+    public interface Parameters extends BuildServiceParameters {
+        /**
+         * The maximum sizes of the entry caches by their directory.
+         */
+        MapProperty<String, Long> getCaches();
+    }
+
+}
@@ -0,0 +1,45 @@
+package net.lenni0451.jartransformer.transformers;
+
+/**
+ * The per-run state of an {@link EntryTransformer}.<br>
+ * A new processor is created for every transformation, so it is safe to keep compiled state in it.<br>
+ * Entries may be processed concurrently, so {@link #process(TransformEntry)} must not modify any shared state.
+ */
+@FunctionalInterface
+public interface EntryProcessor {
+
+    /**
+     * Process a single entry of the jar.<br>
+     * Directories are passed to the processor as well and have to be skipped if they are not relevant.
+     *
+     * @param entry The entry to process
+     * @throws Throwable If the entry could not be processed
+     */
+    void process(final TransformEntry entry) throws Throwable;
+
+    /**
+     * Called after all entries have been processed, but before the output is committed.
+     *
+     * @throws Throwable If the transformation should fail
+     */
+    default void finish() throws Throwable {
+    }
+
+    /**
+     * A stateless processor only depends on the name and content of the entry and its transformer properties.<br>
+     * The class visitors of stateless processors are cached by the entry cache, so unchanged classes are not parsed and written again.
+     *
+     * @return If the processor is stateless
+     */
+    default boolean isStateless() {
+        return true;
+    }
+
+    /**
+     * @return If empty directories should be removed after all entries have been processed
+     */
+    default boolean removesEmptyDirectories() {
+        return false;
+    }
+
+}
@@ -0,0 +1,34 @@
+package net.lenni0451.jartransformer.transformers;
+
+import org.slf4j.Logger;
+
+import javax.annotation.Nullable;
+import java.nio.file.FileSystem;
+import java.util.List;
+
+/**
+ * A transformer which only looks at one entry at a time.<br>
+ * Consecutive entry transformers are fused into a single pass over the jar, so every entry is only read, parsed and written once.
+ */
+public abstract class EntryTransformer extends Transformer {
+
+    public EntryTransformer(final String name) {
+        super(name);
+    }
+
+    /**
+     * Create the processor for a single transformation run.
+     *
+     * @param log The logger to use
+     * @return The processor or {@code null} if there is nothing to do
+     * @throws Throwable If the processor could not be created
+     */
+    @Nullable
+    public abstract EntryProcessor createProcessor(final Logger log) throws Throwable;
+
+    @Override
+    public void transform(Logger log, FileSystem fileSystem) throws Throwable {
+        TransformerPipeline.apply(log, fileSystem, List.of(this), 1, null, null);
+    }
+
+}
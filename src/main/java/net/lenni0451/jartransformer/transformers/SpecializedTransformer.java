@@ -1,20 +1,19 @@
 package net.lenni0451.jartransformer.transformers;
 
+import net.lenni0451.jartransformer.transformers.base.BaseTransformer;
 import org.gradle.api.Project;
 
-import java.util.List;
-
-public interface SpecializedTransformer<T extends SpecializedTransformer<T>> {
+public interface SpecializedTransformer {
 
     /**
-     * Apply the specialized transformer actions to the given project and list of transformers.<br>
-     * This method is only called for the first registered transformer of each type.<br>
-     * The code in this method should be independent of the transformer instance to prevent issues.
+     * Apply the specialized transformer actions to the given project.<br>
+     * This method is called for every registered transformer directly after it has been added to a transformation,
+     * so the configuration of the transformation may not be complete yet and should only be accessed lazily.<br>
+     * Actions which affect the whole project have to check if they have already been applied by another transformer.
      *
-     * @param project      The current project
-     * @param transformers The list of registered transformers of this type
-     * @param contexts     The list of contexts the transformers were registered in (e.g. JarTransformer or DependencyTransformer)
+     * @param project The current project
+     * @param context The transformation the transformer was registered in (e.g. JarTransformer or DependencyTransformer)
      */
-    void applySpecialized(final Project project, final List<T> transformers, final List<Object> contexts);
+    void applySpecialized(final Project project, final BaseTransformer context);
 
 }
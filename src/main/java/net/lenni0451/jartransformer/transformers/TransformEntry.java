@@ -0,0 +1,252 @@
+package net.lenni0451.jartransformer.transformers;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+
+/**
+ * A single file or directory of a jar which is passed through all processors of a fused transformer pipeline.<br>
+ * The content is only read when it is requested and classes are only parsed and serialized once, no matter how many processors access them.<br>
+ * Classes are modified using {@link #visitClass(Function, boolean)},
+ * all class visitors of an entry are chained over a single {@link ClassReader} without building a tree.
+ */
+public class TransformEntry {
+
+    private final String originalName;
+    private final boolean directory;
+    private final ContentSupplier contentSupplier;
+    private final List<Function<ClassVisitor, ClassVisitor>> pendingVisitors = new ArrayList<>();
+    private String name;
+    private byte[] content;
+    private boolean keepConstantPool = true;
+    private boolean contentModified;
+    private boolean deleted;
+    private int modifications;
+    private int classesParsed;
+    private int classesWritten;
+    private long bytesRead;
+
+    public TransformEntry(final String name, final boolean directory, final ContentSupplier contentSupplier) {
+        this.originalName = name;
+        this.directory = directory;
+        this.contentSupplier = contentSupplier;
+        this.name = name;
+    }
+
+    /**
+     * @return The name of the entry before any processor renamed it
+     */
+    public String getOriginalName() {
+        return this.originalName;
+    }
+
+    /**
+     * @return The current name of the entry without a leading slash
+     */
+    public String getName() {
+        return this.name;
+    }
+
+    /**
+     * Move the entry to a new name.
+     *
+     * @param name The new name without a leading slash
+     */
+    public void setName(final String name) {
+        if (!this.name.equals(name)) this.modifications++;
+        this.name = name;
+    }
+
+    public String getFileName() {
+        return this.name.substring(this.name.lastIndexOf('/') + 1);
+    }
+
+    public boolean isDirectory() {
+        return this.directory;
+    }
+
+    public boolean isClass() {
+        return !this.directory && this.name.toLowerCase(Locale.ROOT).endsWith(".class");
+    }
+
+    public boolean isRenamed() {
+        return !this.originalName.equals(this.name);
+    }
+
+    public boolean isModified() {
+        return this.contentModified || !this.pendingVisitors.isEmpty();
+    }
+
+    public boolean isDeleted() {
+        return this.deleted;
+    }
+
+    public void delete() {
+        this.deleted = true;
+        this.modifications++;
+    }
+
+    /**
+     * Get the current content of the entry.<br>
+     * Pending class visitors are applied first.
+     *
+     * @return The content of the entry
+     * @throws IOException If the content could not be read
+     */
+    public byte[] getContent() throws IOException {
+        this.loadContent();
+        if (!this.pendingVisitors.isEmpty()) this.applyVisitors();
+        return this.content;
+    }
+
+    /**
+     * Replace the content of the entry.<br>
+     * Pending class visitors are discarded.
+     *
+     * @param content The new content
+     */
+    public void setContent(final byte[] content) {
+        this.content = content;
+        this.pendingVisitors.clear();
+        this.keepConstantPool = true;
+        this.contentModified = true;
+        this.modifications++;
+    }
+
+    /**
+     * @return If the content is available as bytes without applying pending class visitors
+     */
+    public boolean isContentSerialized() {
+        return this.pendingVisitors.isEmpty();
+    }
+
+    /**
+     * Add a class visitor to this entry.<br>
+     * The visitor is not applied immediately, all visitors are chained and applied in a single pass
+     * once the content is requested.<br>
+     * Visitors implementing {@link ChangeTracking} can report that they didn't change anything,
+     * if all visitors of a pass report that, the original content is kept byte for byte.
+     *
+     * @param visitor          A function which wraps the next visitor of the chain
+     * @param keepConstantPool If the constant pool and unchanged methods of the original class can be copied to the output.
+     *                         This has to be {@code false} if the visitor removes or renames constants, otherwise they would be kept in the class
+     */
+    public void visitClass(final Function<ClassVisitor, ClassVisitor> visitor, final boolean keepConstantPool) {
+        this.pendingVisitors.add(visitor);
+        this.keepConstantPool &= keepConstantPool;
+    }
+
+    /**
+     * Apply all pending class visitors.
+     *
+     * @throws IOException If the content could not be read
+     */
+    public void flush() throws IOException {
+        if (!this.pendingVisitors.isEmpty()) this.getContent();
+    }
+
+    /**
+     * Get the content of the entry without applying the pending class visitors.
+     *
+     * @return The content the pending class visitors would be applied to
+     * @throws IOException If the content could not be read
+     */
+    byte[] getUnvisitedContent() throws IOException {
+        this.loadContent();
+        return this.content;
+    }
+
+    /**
+     * Replace the pending class visitors with a result they produced before.
+     *
+     * @param content The content written by the visitors or {@code null} if they didn't change the class
+     */
+    void applyVisitorResult(@Nullable final byte[] content) {
+        this.pendingVisitors.clear();
+        this.keepConstantPool = true;
+        if (content != null) {
+            this.content = content;
+            this.contentModified = true;
+            this.modifications++;
+        }
+    }
+
+    private void loadContent() throws IOException {
+        if (this.content != null) return;
+        this.content = this.contentSupplier.get();
+        this.bytesRead += this.content.length;
+    }
+
+    private void applyVisitors() {
+        ClassReader classReader = new ClassReader(this.content);
+        ClassWriter classWriter = this.keepConstantPool ? new ClassWriter(classReader, 0) : new ClassWriter(0);
+        List<ClassVisitor> classVisitors = new ArrayList<>();
+        ClassVisitor classVisitor = classWriter;
+        for (int i = this.pendingVisitors.size() - 1; i >= 0; i--) {
+            classVisitor = this.pendingVisitors.get(i).apply(classVisitor);
+            classVisitors.add(classVisitor);
+        }
+        this.pendingVisitors.clear();
+        this.keepConstantPool = true;
+
+        classReader.accept(classVisitor, 0);
+        this.classesParsed++;
+        if (classVisitors.stream().anyMatch(TransformEntry::hasChanges)) {
+            this.content = classWriter.toByteArray();
+            this.contentModified = true;
+            this.modifications++;
+            this.classesWritten++;
+        }
+    }
+
+    private static boolean hasChanges(final ClassVisitor classVisitor) {
+        return !(classVisitor instanceof ChangeTracking changeTracking) || changeTracking.hasChanges();
+    }
+
+    /**
+     * @return How often the entry has been renamed, deleted or modified, used to attribute changes to processors.<br>
+     *         Class visitors are only counted once they actually changed the content
+     */
+    int getModifications() {
+        return this.modifications;
+    }
+
+    int getClassesParsed() {
+        return this.classesParsed;
+    }
+
+    int getClassesWritten() {
+        return this.classesWritten;
+    }
+
+    /**
+     * @return The amount of bytes which have been read from the input
+     */
+    long getBytesRead() {
+        return this.bytesRead;
+    }
+
+
+    @FunctionalInterface
+    public interface ContentSupplier {
+        byte[] get() throws IOException;
+    }
+
+    /**
+     * A class visitor which knows if it changed the visited class.
+     */
+    public interface ChangeTracking {
+        /**
+         * @return If the visited class has been changed
+         */
+        boolean hasChanges();
+    }
+
+}
@@ -1,5 +1,7 @@
 package net.lenni0451.jartransformer.transformers;
 
+import net.lenni0451.jartransformer.events.FileSystemEvent;
+import net.lenni0451.jartransformer.events.TransformEvent;
 import net.lenni0451.jartransformer.utils.FileSystemUtils;
 import net.lenni0451.jartransformer.utils.ThrowingConsumer;
 import org.gradle.api.provider.Property;
@@ -7,29 +9,103 @@ import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.Internal;
 import org.slf4j.Logger;
 
+import javax.annotation.Nullable;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.stream.Stream;
 
 public abstract class Transformer {
 
-    public static void applyAll(final Logger log, final File file, final List<Transformer> transformers) throws Throwable {
-        try (FileSystem fileSystem = FileSystemUtils.openRead(file)) {
+    /**
+     * Apply all transformers from the input to the output jar.<br>
+     * If the transformers don't change any entry, the input is copied to the output without being rewritten.
+     */
+    public static void applyAll(final Logger log, final File input, final File output, final List<Transformer> transformers, final int parallelism,
+                                @Nullable final EntryCache.Settings cache, @Nullable final TransformerMetrics metrics) throws Throwable {
+        if (transformAll(log, input, output, transformers, parallelism, cache, metrics)) return;
+        log.info("The transformers don't change {}, copying it", input.getName());
+        if (!input.equals(output)) Files.copy(input.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Apply all transformers from the input to the output jar.<br>
+     * Changes are detected while the jar is transformed. If the transformers don't change any entry, the output is not written,
+     * so the input can be used as is. Only entry transformers can be checked, other transformers are always assumed to change the jar.
+     *
+     * @return If the output has been written
+     */
+    public static boolean transformAll(final Logger log, final File input, final File output, final List<Transformer> transformers, final int parallelism,
+                                       @Nullable final EntryCache.Settings cache, @Nullable final TransformerMetrics metrics) throws Throwable {
+        if (transformers.stream().allMatch(EntryTransformer.class::isInstance)) {
+            //Stream the jar directly from the input to the output without copying it first
+            boolean changed = TransformerPipeline.apply(log, input, output, transformers.stream().map(EntryTransformer.class::cast).toList(), parallelism, cache, metrics);
+            if (TransformerMetrics.isMeasured(metrics)) metrics.setUnchanged(!changed);
+            return changed;
+        } else {
+            if (!input.equals(output)) Files.copy(input.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            applyAll(log, output, transformers, parallelism, cache, metrics);
+            return true;
+        }
+    }
+
+    public static void applyAll(final Logger log, final File file, final List<Transformer> transformers, final int parallelism,
+                                @Nullable final EntryCache.Settings cache, @Nullable final TransformerMetrics metrics) throws Throwable {
+        FileSystemEvent openEvent = new FileSystemEvent();
+        openEvent.begin();
+        FileSystem fileSystem = FileSystemUtils.openRead(file);
+        record(openEvent, metrics, file, "open");
+        try {
+            List<EntryTransformer> fused = new ArrayList<>();
             for (Transformer transformer : transformers) {
+                if (transformer instanceof EntryTransformer entryTransformer) {
+                    //Consecutive entry transformers are applied in a single pass over the jar
+                    fused.add(entryTransformer);
+                    continue;
+                }
+                TransformerPipeline.apply(log, fileSystem, fused, parallelism, cache, metrics);
+                fused.clear();
+                TransformEvent event = new TransformEvent();
+                event.begin();
+                TransformerMetrics.Sample start = TransformerMetrics.isMeasured(metrics) ? TransformerMetrics.Sample.now() : null;
                 try {
                     transformer.transform(log, fileSystem);
                 } catch (Throwable t) {
                     log.error("Failed to apply transformer: {}", transformer.getName().get(), t);
                     throw t; // Re-throw the exception to stop the transformation process
                 }
+                if (start != null) metrics.getStage(transformer.getName().get()).record(start, null, 0, 0, 0, 0);
+                if (event.shouldCommit()) {
+                    event.task = TransformerMetrics.getTask(metrics);
+                    event.jar = file.getName();
+                    event.transformers = transformer.getName().get();
+                    event.commit();
+                }
             }
+            TransformerPipeline.apply(log, fileSystem, fused, parallelism, cache, metrics);
+        } finally {
+            //Closing the file system writes all changes back to the jar
+            FileSystemEvent closeEvent = new FileSystemEvent();
+            closeEvent.begin();
+            fileSystem.close();
+            record(closeEvent, metrics, file, "close");
         }
     }
 
+    private static void record(final FileSystemEvent event, @Nullable final TransformerMetrics metrics, final File file, final String phase) {
+        if (!event.shouldCommit()) return;
+        event.task = TransformerMetrics.getTask(metrics);
+        event.jar = file.getName();
+        event.phase = phase;
+        event.bytes = file.length();
+        event.commit();
+    }
+
 
     public Transformer(final String name) {
         this.getName().set(name);
@@ -0,0 +1,426 @@
+package net.lenni0451.jartransformer.transformers;
+
+import org.gradle.api.logging.Logging;
+import org.slf4j.Logger;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Performance metrics of a single transformation, collected per transformer.<br>
+ * Entry transformers are measured per entry, so the wall time, CPU time and allocations of every transformer
+ * and its slowest classes are known even though all transformers run in a single pass.
+ * Class visitors are applied in one deferred pass for all transformers, which is reported as its own stage.<br>
+ * The names of the task and the jar are also used to label the JFR events, which are recorded even if the transformers are not measured.
+ */
+public class TransformerMetrics {
+
+    /**
+     * The name of the stage in which the deferred class visitors of all transformers are applied and modified classes are serialized.
+     */
+    public static final String DEFERRED_VISITORS = "(deferred class visitors)";
+    /**
+     * The name of the stage in which the results of the deferred class visitors are loaded from the entry cache.
+     */
+    public static final String ENTRY_CACHE = "(entry cache)";
+    private static final int SLOWEST_CLASSES = 10;
+    private static final ThreadMXBean THREAD_MX_BEAN = ManagementFactory.getThreadMXBean();
+    private static final boolean CPU_TIME = THREAD_MX_BEAN.isCurrentThreadCpuTimeSupported() && THREAD_MX_BEAN.isThreadCpuTimeEnabled();
+    private static final boolean ALLOCATED_BYTES = THREAD_MX_BEAN instanceof com.sun.management.ThreadMXBean bean
+            && bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled();
+
+
+    private final String task;
+    private final String subject;
+    private final boolean measured;
+    private final long start = System.nanoTime();
+    private final Map<String, Stage> stages = new ConcurrentHashMap<>();
+    private final AtomicInteger stageCount = new AtomicInteger();
+    private final AtomicLong bytesRead = new AtomicLong();
+    private final AtomicLong bytesWritten = new AtomicLong();
+    private long wallNanos = -1;
+    private boolean unchanged;
+
+    /**
+     * @param task     The name of the transformation
+     * @param subject  The name of the transformed jar
+     * @param measured If the transformers should be measured
+     */
+    public TransformerMetrics(final String task, final String subject, final boolean measured) {
+        this.task = task;
+        this.subject = subject;
+        this.measured = measured;
+    }
+
+    /**
+     * @param metrics The metrics or {@code null}
+     * @return If the given metrics should be recorded
+     */
+    public static boolean isMeasured(@Nullable final TransformerMetrics metrics) {
+        return metrics != null && metrics.measured;
+    }
+
+    /**
+     * @param metrics The metrics or {@code null}
+     * @return The name of the transformation or an empty string if there are no metrics
+     */
+    public static String getTask(@Nullable final TransformerMetrics metrics) {
+        return metrics == null ? "" : metrics.task;
+    }
+
+    /**
+     * @param metrics The metrics or {@code null}
+     * @return The name of the transformed jar or an empty string if there are no metrics
+     */
+    public static String getSubject(@Nullable final TransformerMetrics metrics) {
+        return metrics == null ? "" : metrics.subject;
+    }
+
+    /**
+     * Get or create the metrics of a transformer.<br>
+     * Stages are reported in the order in which they have been created. This can be called concurrently.
+     *
+     * @param name The name of the transformer
+     * @return The metrics of the transformer
+     */
+    public Stage getStage(final String name) {
+        return this.stages.computeIfAbsent(name, key -> new Stage(key, this.stageCount.getAndIncrement()));
+    }
+
+    public void addBytesRead(final long bytes) {
+        this.bytesRead.addAndGet(bytes);
+    }
+
+    public void addBytesWritten(final long bytes) {
+        this.bytesWritten.addAndGet(bytes);
+    }
+
+    /**
+     * @param unchanged If the transformers didn't change the jar, so it has not been rewritten
+     */
+    public void setUnchanged(final boolean unchanged) {
+        this.unchanged = unchanged;
+    }
+
+    /**
+     * Stop the wall clock of the whole transformation.
+     */
+    public void finish() {
+        this.wallNanos = System.nanoTime() - this.start;
+    }
+
+    /**
+     * @return A single line summary of the transformation for the build output
+     */
+    public String getSummary() {
+        StringBuilder summary = new StringBuilder("Transformed ").append(this.subject).append(" in ").append(millis(this.getWallNanos())).append(" ms");
+        if (this.unchanged) summary.append(" (unchanged)");
+        List<Stage> stages = this.getStages();
+        if (!stages.isEmpty()) {
+            summary.append(": ");
+            StringJoiner joiner = new StringJoiner(", ");
+            stages.stream().sorted(Comparator.comparingLong((Stage stage) -> stage.wallNanos.sum()).reversed()).forEach(stage -> {
+                joiner.add(stage.name + " " + millis(stage.wallNanos.sum()) + " ms");
+            });
+            summary.append(joiner);
+        }
+        return summary.toString();
+    }
+
+    /**
+     * Finish the transformation and, if a report directory is set, write the report and log the summary.<br>
+     * The summary is logged at info level, only the totals of a task should be printed to the build output.
+     *
+     * @param log             The logger to log the summary to
+     * @param lifecycle       If the summary should be printed to the build output
+     * @param reportDirectory The report directory or {@code null} if no report should be written
+     * @param input           The transformed jar
+     * @throws IOException If the report could not be written
+     */
+    public void report(final Logger log, final boolean lifecycle, @Nullable final File reportDirectory, final File input) throws IOException {
+        this.finish();
+        if (reportDirectory == null) return;
+        this.writeReport(getReportFile(reportDirectory, input));
+        if (lifecycle) log.info(Logging.LIFECYCLE, this.getSummary());
+        else log.info(this.getSummary());
+    }
+
+    /**
+     * Get the file of the report of a jar.<br>
+     * Jars with the same name (e.g. of different dependencies or versions) are distinguished by a hash of their absolute path.
+     * Dependencies are stored in the Gradle cache by their checksum, so their path also changes with their content.
+     *
+     * @param directory The report directory
+     * @param input     The transformed jar
+     * @return The report file
+     */
+    public static File getReportFile(final File directory, final File input) {
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(input.getAbsolutePath().getBytes(StandardCharsets.UTF_8));
+            return new File(directory, input.getName() + "-" + HexFormat.of().formatHex(hash, 0, 8) + ".json");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    /**
+     * Write the metrics as a JSON report.
+     *
+     * @param file The file to write the report to
+     * @throws IOException If the report could not be written
+     */
+    public void writeReport(final File file) throws IOException {
+        JsonWriter json = new JsonWriter();
+        json.beginObject();
+        json.name("task").value(this.task);
+        json.name("subject").value(this.subject);
+        json.name("wallMillis").number(millis(this.getWallNanos()));
+        json.name("unchanged").value(this.unchanged);
+        json.name("bytesRead").value(this.bytesRead.get());
+        json.name("bytesWritten").value(this.bytesWritten.get());
+        json.name("cpuTimeMeasured").value(CPU_TIME);
+        json.name("allocationsMeasured").value(ALLOCATED_BYTES);
+        json.name("transformers").beginArray();
+        for (Stage stage : this.getStages()) stage.write(json);
+        json.endArray();
+        json.endObject();
+
+        if (file.getParentFile() != null) file.getParentFile().mkdirs();
+        Files.writeString(file.toPath(), json.toString(), StandardCharsets.UTF_8);
+    }
+
+    private long getWallNanos() {
+        return this.wallNanos < 0 ? System.nanoTime() - this.start : this.wallNanos;
+    }
+
+    private List<Stage> getStages() {
+        List<Stage> stages = new ArrayList<>(this.stages.values());
+        stages.sort(Comparator.comparingInt(stage -> stage.order));
+        return stages;
+    }
+
+    private static String millis(final long nanos) {
+        return String.format(Locale.ROOT, "%.3f", nanos / 1_000_000D);
+    }
+
+
+    /**
+     * A snapshot of the clocks of the current thread.
+     *
+     * @param wallNanos      The wall clock time
+     * @param cpuNanos       The CPU time of the current thread
+     * @param allocatedBytes The bytes allocated by the current thread
+     */
+    public record Sample(long wallNanos, long cpuNanos, long allocatedBytes) {
+        public static Sample now() {
+            long cpuNanos = CPU_TIME ? THREAD_MX_BEAN.getCurrentThreadCpuTime() : 0;
+            long allocatedBytes = ALLOCATED_BYTES ? ((com.sun.management.ThreadMXBean) THREAD_MX_BEAN).getCurrentThreadAllocatedBytes() : 0;
+            return new Sample(System.nanoTime(), cpuNanos, allocatedBytes);
+        }
+    }
+
+    /**
+     * The metrics of a single transformer.<br>
+     * All counters can be updated concurrently.
+     */
+    public static class Stage {
+        private final String name;
+        private final int order;
+        private final LongAdder wallNanos = new LongAdder();
+        private final LongAdder cpuNanos = new LongAdder();
+        private final LongAdder allocatedBytes = new LongAdder();
+        private final LongAdder entries = new LongAdder();
+        private final LongAdder changedEntries = new LongAdder();
+        private final LongAdder classesParsed = new LongAdder();
+        private final LongAdder classesWritten = new LongAdder();
+        private final Queue<ClassTime> slowestClasses = new PriorityQueue<>(Comparator.comparingLong(ClassTime::nanos));
+
+        private Stage(final String name, final int order) {
+            this.name = name;
+            this.order = order;
+        }
+
+        /**
+         * Record the work since the given sample.
+         *
+         * @param start          The sample taken before the work started
+         * @param className      The name of the processed class or {@code null} if no single class has been processed
+         * @param entries        The amount of processed entries
+         * @param changedEntries The amount of entries which have been changed
+         * @param classesParsed  The amount of classes which have been parsed
+         * @param classesWritten The amount of classes which have been written
+         */
+        public void record(final Sample start, @Nullable final String className, final int entries, final int changedEntries, final int classesParsed, final int classesWritten) {
+            Sample end = Sample.now();
+            long nanos = end.wallNanos() - start.wallNanos();
+            this.wallNanos.add(nanos);
+            this.cpuNanos.add(end.cpuNanos() - start.cpuNanos());
+            this.allocatedBytes.add(end.allocatedBytes() - start.allocatedBytes());
+            this.entries.add(entries);
+            this.changedEntries.add(changedEntries);
+            this.classesParsed.add(classesParsed);
+            this.classesWritten.add(classesWritten);
+            if (className != null) {
+                synchronized (this.slowestClasses) {
+                    if (this.slowestClasses.size() < SLOWEST_CLASSES) {
+                        this.slowestClasses.add(new ClassTime(className, nanos));
+                    } else if (this.slowestClasses.peek().nanos() < nanos) {
+                        this.slowestClasses.poll();
+                        this.slowestClasses.add(new ClassTime(className, nanos));
+                    }
+                }
+            }
+        }
+
+        private void write(final JsonWriter json) {
+            json.beginObject();
+            json.name("name").value(this.name);
+            json.name("wallMillis").number(millis(this.wallNanos.sum()));
+            json.name("cpuMillis").number(millis(this.cpuNanos.sum()));
+            json.name("allocatedBytes").value(this.allocatedBytes.sum());
+            json.name("entries").value(this.entries.sum());
+            json.name("changedEntries").value(this.changedEntries.sum());
+            json.name("classesParsed").value(this.classesParsed.sum());
+            json.name("classesWritten").value(this.classesWritten.sum());
+            List<ClassTime> slowestClasses;
+            synchronized (this.slowestClasses) {
+                slowestClasses = new ArrayList<>(this.slowestClasses);
+            }
+            slowestClasses.sort(Comparator.comparingLong(ClassTime::nanos).reversed());
+            json.name("slowestClasses").beginArray();
+            for (ClassTime classTime : slowestClasses) {
+                json.beginObject();
+                json.name("name").value(classTime.name());
+                json.name("millis").number(millis(classTime.nanos()));
+                json.endObject();
+            }
+            json.endArray();
+            json.endObject();
+        }
+    }
+
+    private record ClassTime(String name, long nanos) {
+    }
+
+    /**
+     * A minimal JSON writer for the report.
+     */
+    private static class JsonWriter {
+        private final StringBuilder json = new StringBuilder();
+        private final Deque<Boolean> first = new ArrayDeque<>();
+        private boolean afterName;
+
+        private JsonWriter beginObject() {
+            return this.open('{');
+        }
+
+        private JsonWriter endObject() {
+            return this.close('}');
+        }
+
+        private JsonWriter beginArray() {
+            return this.open('[');
+        }
+
+        private JsonWriter endArray() {
+            return this.close(']');
+        }
+
+        private JsonWriter name(final String name) {
+            this.separate();
+            this.string(name).append(": ");
+            this.afterName = true;
+            return this;
+        }
+
+        private JsonWriter value(final String value) {
+            this.separate();
+            this.string(value);
+            return this;
+        }
+
+        private JsonWriter number(final String formatted) {
+            this.separate();
+            this.json.append(formatted);
+            return this;
+        }
+
+        private JsonWriter value(final long value) {
+            this.separate();
+            this.json.append(value);
+            return this;
+        }
+
+        private JsonWriter value(final boolean value) {
+            this.separate();
+            this.json.append(value);
+            return this;
+        }
+
+        private JsonWriter open(final char c) {
+            this.separate();
+            this.json.append(c);
+            this.first.push(true);
+            return this;
+        }
+
+        private JsonWriter close(final char c) {
+            boolean empty = this.first.pop();
+            if (!empty) this.newLine();
+            this.json.append(c);
+            return this;
+        }
+
+        private void separate() {
+            if (this.afterName) {
+                this.afterName = false;
+                return;
+            }
+            if (this.first.isEmpty()) return;
+            if (!this.first.pop()) this.json.append(',');
+            this.first.push(false);
+            this.newLine();
+        }
+
+        private void newLine() {
+            this.json.append('\n').append("  ".repeat(this.first.size()));
+        }
+
+        private StringBuilder string(final String s) {
+            this.json.append('"');
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                switch (c) {
+                    case '"' -> this.json.append("\\\"");
+                    case '\\' -> this.json.append("\\\\");
+                    case '\n' -> this.json.append("\\n");
+                    case '\r' -> this.json.append("\\r");
+                    case '\t' -> this.json.append("\\t");
+                    default -> {
+                        if (c < 0x20) this.json.append(String.format(Locale.ROOT, "\\u%04x", (int) c));
+                        else this.json.append(c);
+                    }
+                }
+            }
+            return this.json.append('"');
+        }
+
+        @Override
+        public String toString() {
+            return this.json + "\n";
+        }
+    }
+
+}
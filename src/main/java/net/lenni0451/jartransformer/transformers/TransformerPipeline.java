@@ -0,0 +1,477 @@
+package net.lenni0451.jartransformer.transformers;
+
+import net.lenni0451.jartransformer.events.EntryEvent;
+import net.lenni0451.jartransformer.events.TransformEvent;
+import net.lenni0451.jartransformer.utils.RawZipFile;
+import net.lenni0451.jartransformer.utils.RawZipOutput;
+import org.slf4j.Logger;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.ZipException;
+
+public class TransformerPipeline {
+
+    private static final int WINDOW_SIZE_PER_THREAD = 64;
+
+    /**
+     * Run all given transformers in a single pass over the file system.<br>
+     * Every entry is passed through all processors before the next entry is read.
+     *
+     * @param log          The logger to use
+     * @param fileSystem   The file system of the jar
+     * @param transformers The transformers to apply in order
+     * @param parallelism  The amount of threads used to process entries
+     * @param cache        The settings of the entry cache or {@code null} to process all entries
+     * @param metrics      The metrics to record the transformers in or {@code null} to not measure them
+     * @throws Throwable If a transformer fails
+     */
+    public static void apply(final Logger log, final FileSystem fileSystem, final List<EntryTransformer> transformers, final int parallelism,
+                             @Nullable final EntryCache.Settings cache, @Nullable final TransformerMetrics metrics) throws Throwable {
+        List<NamedProcessor> processors = createProcessors(log, transformers);
+        if (processors.isEmpty()) return;
+        EntryCache entryCache = createCache(log, transformers, processors, cache);
+        TransformEvent event = new TransformEvent();
+        event.begin();
+
+        List<Path> paths;
+        try (Stream<Path> stream = Files.walk(fileSystem.getPath("/"))) {
+            paths = stream.toList();
+        }
+        List<Path> deletedDirectories = new ArrayList<>();
+        PassStatistics statistics = new PassStatistics();
+        processEntries(log, processors, entryCache, metrics, parallelism, paths.iterator(), path -> {
+            String name = toEntryName(path);
+            if (name.isEmpty()) return null;
+            return new TransformEntry(name, Files.isDirectory(path), () -> Files.readAllBytes(path));
+        }, (path, entry) -> {
+            if (entry.isDeleted()) {
+                if (entry.isDirectory()) deletedDirectories.add(path);
+                else Files.delete(path);
+                log.debug("Removed file: {}", path);
+            } else if (!entry.isDirectory()) {
+                statistics.bytesWritten += commit(fileSystem, path, entry);
+            }
+            statistics.add(entry);
+        });
+        finish(log, processors, entryCache);
+
+        deletedDirectories.sort(Comparator.comparingInt(Path::getNameCount).reversed());
+        for (Path directory : deletedDirectories) {
+            if (isEmptyDirectory(directory)) Files.delete(directory);
+        }
+        if (processors.stream().anyMatch(processor -> processor.processor().removesEmptyDirectories())) {
+            removeEmptyDirectories(log, fileSystem);
+        }
+        record(event, metrics, TransformerMetrics.getSubject(metrics), processors, "", statistics);
+    }
+
+    /**
+     * Run all given transformers in a single streaming pass from the input jar to the output jar.<br>
+     * The input is read with a {@link RawZipFile} and the output is written directly with a {@link RawZipOutput},
+     * so the jar is neither copied beforehand nor rewritten afterward. Unchanged entries are copied without recompressing them.<br>
+     * The output is written to a temporary file first and only replaces the output file after all entries have been processed.
+     * If no entry has been changed, the temporary file is discarded and the output is not written at all,
+     * so the input can be used as is instead of a rewritten copy.
+     *
+     * @param log          The logger to use
+     * @param input        The input jar
+     * @param output       The output jar (may be the same as the input)
+     * @param transformers The transformers to apply in order
+     * @param parallelism  The amount of threads used to process entries
+     * @param cache        The settings of the entry cache or {@code null} to process all entries
+     * @param metrics      The metrics to record the transformers in or {@code null} to not measure them
+     * @return If the output has been written, {@code false} if the transformers don't change any entry
+     * @throws Throwable If a transformer fails
+     */
+    public static boolean apply(final Logger log, final File input, final File output, final List<EntryTransformer> transformers, final int parallelism,
+                                @Nullable final EntryCache.Settings cache, @Nullable final TransformerMetrics metrics) throws Throwable {
+        List<NamedProcessor> processors = createProcessors(log, transformers);
+        if (processors.isEmpty()) return false;
+        EntryCache entryCache = createCache(log, transformers, processors, cache);
+        TransformEvent event = new TransformEvent();
+        event.begin();
+
+        PassStatistics statistics = new PassStatistics();
+        File parent = output.getAbsoluteFile().getParentFile();
+        Path tempFile = Files.createTempFile(parent.toPath(), output.getName(), ".tmp");
+        boolean changed;
+        try {
+            boolean removeEmptyDirectories = processors.stream().anyMatch(processor -> processor.processor().removesEmptyDirectories());
+            try (RawZipFile zipFile = new RawZipFile(input); JarOutput jarOutput = new JarOutput(log, zipFile, Files.newOutputStream(tempFile), removeEmptyDirectories)) {
+                processEntries(log, processors, entryCache, metrics, parallelism, zipFile.getEntries().iterator(), zipEntry -> createEntry(zipFile, zipEntry), (zipEntry, entry) -> {
+                    statistics.bytesWritten += jarOutput.write(zipEntry, entry);
+                    statistics.add(entry);
+                });
+                finish(log, processors, entryCache);
+                changed = statistics.changed || jarOutput.hasRemovedDirectories();
+            }
+            if (changed) Files.move(tempFile, output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        if (!changed) statistics.bytesWritten = 0;
+        record(event, metrics, input.getName(), processors, "", statistics);
+        return changed;
+    }
+
+    static List<NamedProcessor> createProcessors(final Logger log, final List<EntryTransformer> transformers) throws Throwable {
+        List<NamedProcessor> processors = new ArrayList<>();
+        for (EntryTransformer transformer : transformers) {
+            try {
+                EntryProcessor processor = transformer.createProcessor(log);
+                if (processor != null) processors.add(new NamedProcessor(transformer.getName().get(), processor));
+            } catch (Throwable t) {
+                log.error("Failed to apply transformer: {}", transformer.getName().get(), t);
+                throw t;
+            }
+        }
+        return processors;
+    }
+
+    /**
+     * Pass all entries through the processors and hand them to the consumer in their original order.<br>
+     * With a parallelism greater than one, entries are read, processed and serialized in windows on a fork-join pool.
+     * The consumer is always called on the calling thread and in source order, so the output is identical to the serial mode.<br>
+     * Only the entries which are required by the processors are read, unchanged entries can be copied by the consumer.
+     */
+    private static <T> void processEntries(final Logger log, final List<NamedProcessor> processors, @Nullable final EntryCache cache, @Nullable final TransformerMetrics metrics,
+                                           final int parallelism, final Iterator<T> sources, final EntryFactory<T> factory, final EntryConsumer<T> consumer) throws Throwable {
+        if (parallelism <= 1) {
+            while (sources.hasNext()) {
+                T source = sources.next();
+                TransformEntry entry = factory.create(source);
+                if (entry == null) continue;
+                process(log, processors, cache, metrics, entry);
+                consumer.accept(source, entry);
+            }
+            return;
+        }
+
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            int windowSize = parallelism * WINDOW_SIZE_PER_THREAD;
+            List<T> windowSources = new ArrayList<>(windowSize);
+            List<TransformEntry> windowEntries = new ArrayList<>(windowSize);
+            while (sources.hasNext()) {
+                T source = sources.next();
+                TransformEntry entry = factory.create(source);
+                if (entry == null) continue;
+                windowSources.add(source);
+                windowEntries.add(entry);
+                if (windowEntries.size() >= windowSize) processWindow(log, processors, cache, metrics, pool, windowSources, windowEntries, consumer);
+            }
+            processWindow(log, processors, cache, metrics, pool, windowSources, windowEntries, consumer);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static <T> void processWindow(final Logger log, final List<NamedProcessor> processors, @Nullable final EntryCache cache, @Nullable final TransformerMetrics metrics,
+                                          final ForkJoinPool pool, final List<T> sources, final List<TransformEntry> entries, final EntryConsumer<T> consumer) throws Throwable {
+        if (entries.isEmpty()) return;
+        try {
+            //Modified classes are serialized by the processing, so the consumer only has to write them
+            pool.submit(() -> entries.parallelStream().forEach(entry -> process(log, processors, cache, metrics, entry))).get();
+        } catch (ExecutionException e) {
+            throw e.getCause();
+        }
+        for (int i = 0; i < entries.size(); i++) {
+            consumer.accept(sources.get(i), entries.get(i));
+        }
+        sources.clear();
+        entries.clear();
+    }
+
+    @Nullable
+    private static EntryCache createCache(final Logger log, final List<EntryTransformer> transformers, final List<NamedProcessor> processors, @Nullable final EntryCache.Settings settings) {
+        if (settings == null) return null;
+        //Processors which collect state over all entries have to see every entry
+        if (!processors.stream().allMatch(processor -> processor.processor().isStateless())) return null;
+        return new EntryCache(log, settings, EntryCache.fingerprint(transformers));
+    }
+
+    private static void process(final Logger log, final List<NamedProcessor> processors, @Nullable final EntryCache cache, @Nullable final TransformerMetrics metrics,
+                                final TransformEntry entry) {
+        boolean measured = TransformerMetrics.isMeasured(metrics);
+        String className = entry.isClass() ? entry.getOriginalName() : null;
+        for (NamedProcessor processor : processors) {
+            EntryEvent event = new EntryEvent();
+            event.begin();
+            TransformerMetrics.Sample start = measured ? TransformerMetrics.Sample.now() : null;
+            int modifications = entry.getModifications();
+            int classesParsed = entry.getClassesParsed();
+            int classesWritten = entry.getClassesWritten();
+            try {
+                processor.processor().process(entry);
+            } catch (Throwable t) {
+                log.error("Failed to apply transformer: {}", processor.name(), t);
+                throw new IllegalStateException("Failed to process file: " + entry.getOriginalName(), t);
+            }
+            int parsed = entry.getClassesParsed() - classesParsed;
+            int written = entry.getClassesWritten() - classesWritten;
+            if (measured) metrics.getStage(processor.name()).record(start, className, 1, entry.getModifications() > modifications ? 1 : 0, parsed, written);
+            record(event, metrics, entry, processor.name(), "transform", parsed, written, 0);
+            if (entry.isDeleted()) return;
+        }
+        if (entry.isContentSerialized()) return;
+
+        //Only the deferred class visitors are cached, they are the expensive part and their input has to be read anyway
+        String key = null;
+        if (cache != null) {
+            EntryEvent event = new EntryEvent();
+            event.begin();
+            TransformerMetrics.Sample start = measured ? TransformerMetrics.Sample.now() : null;
+            try {
+                key = cache.getKey(entry);
+            } catch (Throwable t) {
+                throw new IllegalStateException("Failed to process file: " + entry.getOriginalName(), t);
+            }
+            boolean hit = cache.load(key, entry);
+            if (measured) metrics.getStage(TransformerMetrics.ENTRY_CACHE).record(start, className, 1, 0, 0, 0);
+            record(event, metrics, entry, TransformerMetrics.ENTRY_CACHE, "cache", 0, 0, 0);
+            if (hit) return;
+        }
+        EntryEvent event = new EntryEvent();
+        event.begin();
+        TransformerMetrics.Sample start = measured ? TransformerMetrics.Sample.now() : null;
+        int modifications = entry.getModifications();
+        int classesParsed = entry.getClassesParsed();
+        int classesWritten = entry.getClassesWritten();
+        long bytesWritten = 0;
+        try {
+            entry.flush();
+            //The pending class visitors are applied here, so the time is not hidden in the output
+            if ((measured || event.isEnabled()) && entry.isClass() && entry.isModified()) bytesWritten = entry.getContent().length;
+        } catch (Throwable t) {
+            throw new IllegalStateException("Failed to process file: " + entry.getOriginalName(), t);
+        }
+        boolean changed = entry.getModifications() > modifications;
+        if (key != null) cache.store(key, entry, changed);
+        int parsed = entry.getClassesParsed() - classesParsed;
+        int written = entry.getClassesWritten() - classesWritten;
+        if (measured) metrics.getStage(TransformerMetrics.DEFERRED_VISITORS).record(start, className, 1, changed ? 1 : 0, parsed, written);
+        record(event, metrics, entry, TransformerMetrics.DEFERRED_VISITORS, "write", parsed, written, bytesWritten);
+    }
+
+    private static void record(final EntryEvent event, @Nullable final TransformerMetrics metrics, final TransformEntry entry, final String transformer, final String phase,
+                               final int classesParsed, final int classesWritten, final long bytesWritten) {
+        if (!event.shouldCommit()) return;
+        event.task = TransformerMetrics.getTask(metrics);
+        event.jar = TransformerMetrics.getSubject(metrics);
+        event.entry = entry.getOriginalName();
+        event.transformer = transformer;
+        event.phase = phase;
+        event.classesParsed = classesParsed;
+        event.classesWritten = classesWritten;
+        event.bytesRead = entry.getBytesRead();
+        event.bytesWritten = bytesWritten;
+        event.commit();
+    }
+
+    private static void record(final TransformEvent event, @Nullable final TransformerMetrics metrics, final String jar, final List<NamedProcessor> processors, final String suffix,
+                               final PassStatistics statistics) {
+        if (TransformerMetrics.isMeasured(metrics)) {
+            metrics.addBytesRead(statistics.bytesRead);
+            metrics.addBytesWritten(statistics.bytesWritten);
+        }
+        if (!event.shouldCommit()) return;
+        event.task = TransformerMetrics.getTask(metrics);
+        event.jar = jar;
+        event.transformers = processors.stream().map(NamedProcessor::name).collect(Collectors.joining(", ")) + suffix;
+        event.entries = statistics.entries;
+        event.bytesRead = statistics.bytesRead;
+        event.bytesWritten = statistics.bytesWritten;
+        event.commit();
+    }
+
+    private static void finish(final Logger log, final List<NamedProcessor> processors, @Nullable final EntryCache cache) throws Throwable {
+        for (NamedProcessor processor : processors) {
+            try {
+                processor.processor().finish();
+            } catch (Throwable t) {
+                log.error("Failed to apply transformer: {}", processor.name(), t);
+                throw t;
+            }
+        }
+        if (cache != null) cache.finish();
+    }
+
+    @Nullable
+    private static TransformEntry createEntry(final RawZipFile zipFile, final RawZipFile.Entry zipEntry) {
+        String name = zipEntry.name();
+        boolean directory = zipEntry.isDirectory();
+        if (directory) name = name.substring(0, name.length() - 1);
+        if (name.isEmpty()) return null;
+        return new TransformEntry(name, directory, () -> zipFile.read(zipEntry));
+    }
+
+    private static String toEntryName(final Path path) {
+        String name = path.toString();
+        if (name.startsWith("/")) name = name.substring(1);
+        return name;
+    }
+
+    /**
+     * @return The amount of bytes which have been written
+     */
+    private static long commit(final FileSystem fileSystem, final Path path, final TransformEntry entry) throws IOException {
+        if (entry.isRenamed()) {
+            Path newPath = fileSystem.getPath("/" + entry.getName());
+            if (newPath.getParent() != null) Files.createDirectories(newPath.getParent());
+            if (entry.isModified()) {
+                Files.write(newPath, entry.getContent());
+                Files.delete(path);
+                return entry.getContent().length;
+            } else {
+                Files.move(path, newPath);
+            }
+        } else if (entry.isModified()) {
+            Files.write(path, entry.getContent());
+            return entry.getContent().length;
+        }
+        return 0;
+    }
+
+    private static boolean isEmptyDirectory(final Path path) throws IOException {
+        if (!Files.isDirectory(path)) return false;
+        try (Stream<Path> dirStream = Files.list(path)) {
+            return dirStream.findAny().isEmpty();
+        }
+    }
+
+    private static void removeEmptyDirectories(final Logger log, final FileSystem fileSystem) throws IOException {
+        try (Stream<Path> paths = Files.walk(fileSystem.getPath("/"))) {
+            paths
+                    .filter(Files::isDirectory)
+                    .sorted((p1, p2) -> p2.toString().length() - p1.toString().length())
+                    .forEach(path -> {
+                        try {
+                            if (!isEmptyDirectory(path)) return;
+                            Files.delete(path);
+                            log.debug("Removed empty directory: {}", path);
+                        } catch (Throwable t) {
+                            throw new IllegalStateException("Failed to remove empty directory: " + path, t);
+                        }
+                    });
+        }
+    }
+
+
+    record NamedProcessor(String name, EntryProcessor processor) {
+    }
+
+    @FunctionalInterface
+    private interface EntryFactory<T> {
+        @Nullable
+        TransformEntry create(final T source) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface EntryConsumer<T> {
+        void accept(final T source, final TransformEntry entry) throws IOException;
+    }
+
+    /**
+     * The totals of a single pass over a jar.<br>
+     * Only updated by the consumer, which always runs on the calling thread.
+     */
+    private static class PassStatistics {
+        private long entries;
+        private long bytesRead;
+        private long bytesWritten;
+        private boolean changed;
+
+        private void add(final TransformEntry entry) {
+            this.entries++;
+            this.bytesRead += entry.getBytesRead();
+            this.changed |= entry.isDeleted() || entry.isRenamed() || entry.isModified();
+        }
+    }
+
+    /**
+     * Writes the processed entries to the output jar.<br>
+     * Entries which haven't been modified are copied from the input without recompressing them.
+     * If empty directories are removed, directories are only written right before the first file inside them.
+     */
+    private static class JarOutput implements Closeable {
+        private final Logger log;
+        private final RawZipFile input;
+        private final RawZipOutput output;
+        private final boolean removeEmptyDirectories;
+        private final Set<String> writtenEntries = new HashSet<>();
+        private final Map<String, RawZipFile.Entry> pendingDirectories = new HashMap<>();
+        private final Set<String> usedDirectories = new HashSet<>();
+
+        private JarOutput(final Logger log, final RawZipFile input, final OutputStream os, final boolean removeEmptyDirectories) {
+            this.log = log;
+            this.input = input;
+            this.output = new RawZipOutput(os);
+            this.removeEmptyDirectories = removeEmptyDirectories;
+        }
+
+        /**
+         * @return The amount of uncompressed bytes which have been written
+         */
+        public long write(final RawZipFile.Entry source, final TransformEntry entry) throws IOException {
+            if (entry.isDeleted()) {
+                this.log.debug("Removed file: {}", entry.getOriginalName());
+                return 0;
+            }
+            if (entry.isDirectory()) {
+                String name = entry.getName() + "/";
+                if (!this.removeEmptyDirectories || this.usedDirectories.contains(name)) this.writeDirectory(name, source);
+                else this.pendingDirectories.putIfAbsent(name, source); //Directories without any files are never written
+                return 0;
+            }
+
+            String name = entry.getName();
+            for (int i = name.indexOf('/'); i != -1; i = name.indexOf('/', i + 1)) {
+                String directory = name.substring(0, i + 1);
+                if (this.removeEmptyDirectories && this.usedDirectories.add(directory)) {
+                    RawZipFile.Entry pending = this.pendingDirectories.remove(directory);
+                    if (pending != null) this.writeDirectory(directory, pending);
+                }
+                //Create the parent directories of moved files, like Files.createDirectories would
+                if (entry.isRenamed()) this.writeDirectory(directory, null);
+            }
+            if (!this.writtenEntries.add(name)) throw new ZipException("duplicate entry: " + name);
+            if (!entry.isModified()) {
+                this.output.writeRaw(this.input, source, name);
+                return source.size();
+            }
+            byte[] content = entry.getContent();
+            this.output.write(name, content, source);
+            return content.length;
+        }
+
+        private void writeDirectory(final String name, @Nullable final RawZipFile.Entry source) throws IOException {
+            if (!this.writtenEntries.add(name)) return;
+            if (source == null) this.output.writeDirectory(name);
+            else this.output.writeRaw(this.input, source, name);
+        }
+
+        /**
+         * @return If empty directories of the input have not been written
+         */
+        public boolean hasRemovedDirectories() {
+            return !this.pendingDirectories.isEmpty();
+        }
+
+        @Override
+        public void close() throws IOException {
+            for (String directory : this.pendingDirectories.keySet()) this.log.debug("Removed empty directory: {}", directory);
+            this.output.close();
+        }
+    }
+
+}
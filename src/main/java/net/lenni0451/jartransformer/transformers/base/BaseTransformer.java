@@ -3,21 +3,24 @@ package net.lenni0451.jartransformer.transformers.base;
 import net.lenni0451.jartransformer.transformers.Transformer;
 import net.lenni0451.jartransformer.transformers.impl.*;
 import org.gradle.api.Action;
+import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.model.ObjectFactory;
 import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.Input;
 import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.Nested;
-import org.slf4j.Logger;
 
-import java.io.File;
 import java.util.ArrayList;
 import java.util.List;
 
 public abstract class BaseTransformer {
 
     private final ObjectFactory objectFactory;
+    /**
+     * Only used while the project is configured, so it is not stored in the configuration cache.
+     */
+    private final transient List<Action<? super Transformer>> transformerListeners = new ArrayList<>();
 
     public BaseTransformer(final ObjectFactory objectFactory, final String name) {
         this.objectFactory = objectFactory;
@@ -30,13 +33,47 @@ public abstract class BaseTransformer {
     @Nested
     public abstract ListProperty<Transformer> getTransformers();
 
+    /**
+     * The amount of threads used to transform the entries of a jar.<br>
+     * Defaults to the max worker count of the build. Set to {@code 1} to transform all entries on the calling thread.
+     */
+    @Internal
+    public abstract Property<Integer> getParallelism();
+
+    /**
+     * The directory in which the classes written by the transformers are cached.<br>
+     * If only a few classes of the input changed, the other classes are taken from the cache instead of being parsed and written again.
+     * Not set by default, which disables the cache.
+     */
+    @Internal
+    public abstract DirectoryProperty getEntryCacheDirectory();
+
+    /**
+     * The maximum size of the entry cache in bytes, which is enforced at the end of the build. Set to {@code 0} to disable the cache.
+     */
+    @Internal
+    public abstract Property<Long> getEntryCacheSize();
+
+    /**
+     * The directory in which a JSON report with the performance metrics of every transformer is written per transformed jar.<br>
+     * If not set, the transformers are neither measured nor reported. JFR events are recorded either way.
+     */
+    @Internal
+    public abstract DirectoryProperty getReportDirectory();
+
     @Internal
     public boolean isCacheable() {
         return this.getTransformers().get().stream().allMatch(Transformer::isCacheable);
     }
 
-    public void apply(final Logger log, final File file) throws Throwable {
-        Transformer.applyAll(log, file, this.getTransformers().get());
+    /**
+     * Execute the given action for all transformers which have been added and will be added to this transformation.
+     *
+     * @param action The action to execute
+     */
+    public void allTransformers(final Action<? super Transformer> action) {
+        this.transformerListeners.add(action);
+        for (Transformer transformer : this.getTransformers().get()) action.execute(transformer);
     }
 
     public void repackage(final Action<? super RepackageTransformer> action) {
@@ -65,6 +102,7 @@ public abstract class BaseTransformer {
         transformers.add(transformer);
         this.getTransformers().set(transformers);
         action.execute(transformer);
+        for (Action<? super Transformer> listener : this.transformerListeners) listener.execute(transformer);
     }
 
 }
@@ -3,7 +3,7 @@ package net.lenni0451.jartransformer.transformers.base;
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.model.ObjectFactory;
 import org.gradle.api.provider.Property;
-import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
 
 import javax.inject.Inject;
 
@@ -14,7 +14,11 @@ public abstract class DependencyTransformer extends BaseTransformer {
         super(objectFactory, name);
     }
 
-    @Input
+    /**
+     * The configuration whose dependencies are transformed.<br>
+     * The transformed jars are inputs of the artifact transform, the configuration itself is not.
+     */
+    @Internal
     public abstract Property<Configuration> getConfiguration();
 
 }
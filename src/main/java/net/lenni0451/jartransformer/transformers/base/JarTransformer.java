@@ -1,9 +1,11 @@
 package net.lenni0451.jartransformer.transformers.base;
 
 import lombok.Getter;
+import net.lenni0451.jartransformer.tasks.WorkerIsolation;
 import org.gradle.api.file.Directory;
 import org.gradle.api.file.RegularFileProperty;
 import org.gradle.api.model.ObjectFactory;
+import org.gradle.api.provider.Property;
 import org.gradle.api.tasks.*;
 
 import javax.inject.Inject;
@@ -28,4 +30,16 @@ public abstract class JarTransformer extends BaseTransformer {
     @OutputFile
     public abstract RegularFileProperty getOutputFile();
 
+    /**
+     * How the worker running the transformation is isolated from the build. Defaults to {@link WorkerIsolation#NONE}.
+     */
+    @Internal
+    public abstract Property<WorkerIsolation> getWorkerIsolation();
+
+    /**
+     * The maximum heap size of the worker process (e.g. {@code 1g}), only used with {@link WorkerIsolation#PROCESS}.
+     */
+    @Internal
+    public abstract Property<String> getWorkerMaxHeapSize();
+
 }
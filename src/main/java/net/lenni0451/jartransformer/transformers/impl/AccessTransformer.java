@@ -1,31 +1,22 @@
 package net.lenni0451.jartransformer.transformers.impl;
 
-import lombok.extern.slf4j.Slf4j;
-import net.lenni0451.commons.asm.ASMUtils;
 import net.lenni0451.commons.asm.Modifiers;
-import net.lenni0451.commons.asm.io.ClassIO;
-import net.lenni0451.jartransformer.transformers.Transformer;
+import net.lenni0451.jartransformer.transformers.EntryProcessor;
+import net.lenni0451.jartransformer.transformers.EntryTransformer;
+import net.lenni0451.jartransformer.transformers.TransformEntry;
 import org.gradle.api.provider.SetProperty;
 import org.gradle.api.tasks.Input;
-import org.objectweb.asm.Opcodes;
-import org.objectweb.asm.tree.ClassNode;
-import org.objectweb.asm.tree.FieldNode;
-import org.objectweb.asm.tree.MethodNode;
+import org.objectweb.asm.*;
 import org.slf4j.Logger;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
-import java.nio.file.FileSystem;
-import java.nio.file.Files;
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Locale;
-import java.util.Set;
-import java.util.function.Consumer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-@Slf4j
-public abstract class AccessTransformer extends Transformer {
+public abstract class AccessTransformer extends EntryTransformer {
 
     private static final Pattern CLASS_REGEX = Pattern.compile("^(\\w[\\w/]+\\w)$|^L(\\w[\\w/]+\\w);$");
     public static final Pattern FIELD_REGEX = Pattern.compile("^(?>L([^;]+);|([^.]+)\\.)([^(]+):(.+)$");
@@ -48,8 +39,8 @@ public abstract class AccessTransformer extends Transformer {
     public abstract SetProperty<String> getFull();
 
     @Override
-    public void transform(Logger log, FileSystem fileSystem) throws Throwable {
-        List<ClassMutator> targets = new ArrayList<>();
+    public EntryProcessor createProcessor(Logger log) {
+        List<AccessTarget> targets = new ArrayList<>();
         this.iterateEntries(targets, this.getAccessible().get(), access -> Modifiers.setAccess(access, Opcodes.ACC_PUBLIC));
         this.iterateEntries(targets, this.getMutable().get(), access -> Modifiers.remove(access, Opcodes.ACC_FINAL));
         this.iterateEntries(targets, this.getFull().get(), access -> {
@@ -57,32 +48,30 @@ public abstract class AccessTransformer extends Transformer {
             out = Modifiers.remove(out, Opcodes.ACC_FINAL);
             return out;
         });
-        this.iterateFiles(fileSystem, path -> {
-            if (path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".class")) {
-                byte[] bytes = Files.readAllBytes(path);
-                ClassNode node = ClassIO.fromBytes(bytes);
-                boolean modified = false;
-                for (ClassMutator target : targets) {
-                    if (!target.className().equals(node.name)) continue;
-                    target.mutate(node);
-                    modified = true;
-                }
-                if (modified) {
-                    Files.write(path, ClassIO.toStacklessBytes(node));
-                    log.debug("Processed access transformer for class: {}", path);
-                }
+        if (targets.isEmpty()) return null;
+        Map<String, List<AccessTarget>> targetsByClass = new HashMap<>();
+        for (AccessTarget target : targets) {
+            targetsByClass.computeIfAbsent(target.className(), k -> new ArrayList<>()).add(target);
+        }
+        return new AccessProcessor(log, targetsByClass, ConcurrentHashMap.newKeySet());
+    }
+
+    private static void checkMissing(final String className, final List<AccessTarget> missingTargets) {
+        for (AccessTarget target : missingTargets) {
+            if (target instanceof FieldTarget fieldTarget) {
+                throw new IllegalArgumentException("Field '" + fieldTarget.fieldName() + ":" + fieldTarget.fieldDesc() + "' not found in class '" + className + "'");
+            } else if (target instanceof MethodTarget methodTarget) {
+                throw new IllegalArgumentException("Method '" + methodTarget.methodName() + methodTarget.methodDesc() + "' not found in class '" + className + "'");
             }
-        });
+        }
     }
 
-    private void iterateEntries(final List<ClassMutator> targets, final Set<String> entries, final AccessMutator mutator) {
+    private void iterateEntries(final List<AccessTarget> targets, final Set<String> entries, final AccessMutator mutator) {
         for (String s : entries) {
             Matcher matcher = CLASS_REGEX.matcher(s);
             if (matcher.matches()) {
                 String className = matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
-                targets.add(new ClassTarget(className, classNode -> {
-                    classNode.access = mutator.mutate(classNode.access);
-                }));
+                targets.add(new ClassTarget(className, mutator));
                 continue;
             }
             matcher = FIELD_REGEX.matcher(s);
@@ -90,9 +79,7 @@ public abstract class AccessTransformer extends Transformer {
                 String className = matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
                 String fieldName = matcher.group(3);
                 String fieldDesc = matcher.group(4);
-                targets.add(new FieldTarget(className, fieldName, fieldDesc, fieldNode -> {
-                    fieldNode.access = mutator.mutate(fieldNode.access);
-                }));
+                targets.add(new FieldTarget(className, fieldName, fieldDesc, mutator));
                 continue;
             }
             matcher = METHOD_REGEX.matcher(s);
@@ -100,9 +87,7 @@ public abstract class AccessTransformer extends Transformer {
                 String className = matcher.group(1) != null ? matcher.group(1) : matcher.group(2);
                 String methodName = matcher.group(3);
                 String methodDesc = matcher.group(4);
-                targets.add(new MethodTarget(className, methodName, methodDesc, methodNode -> {
-                    methodNode.access = mutator.mutate(methodNode.access);
-                }));
+                targets.add(new MethodTarget(className, methodName, methodDesc, mutator));
                 continue;
             }
             throw new IllegalArgumentException("Invalid target: " + s);
@@ -110,40 +95,183 @@ public abstract class AccessTransformer extends Transformer {
     }
 
 
-    private interface ClassMutator {
+    private interface AccessTarget {
         String className();
+    }
 
-        void mutate(final ClassNode classNode);
+    private record ClassTarget(String className, AccessMutator mutator) implements AccessTarget {
     }
 
-    private record ClassTarget(String className, Consumer<ClassNode> mutator) implements ClassMutator {
+    private record FieldTarget(String className, String fieldName, String fieldDesc, AccessMutator mutator) implements AccessTarget {
+    }
+
+    private record MethodTarget(String className, String methodName, String methodDesc, AccessMutator mutator) implements AccessTarget {
+    }
+
+    @FunctionalInterface
+    private interface AccessMutator {
+        int mutate(final int access);
+    }
+
+    /**
+     * Only classes which are targeted are opened. The class name is looked up using the path of the entry.<br>
+     * If the class has not been changed by another transformer, the access flags are patched directly in the class file.
+     */
+    private record AccessProcessor(Logger log, Map<String, List<AccessTarget>> targets, Set<String> foundClasses) implements EntryProcessor {
         @Override
-        public void mutate(ClassNode classNode) {
-            this.mutator.accept(classNode);
+        public void process(TransformEntry entry) throws Throwable {
+            if (!entry.isClass()) return;
+            String className = getClassName(entry.getName());
+            List<AccessTarget> classTargets = this.targets.get(className);
+            if (classTargets == null) return;
+
+            if (entry.isContentSerialized()) {
+                byte[] patched = patchAccess(entry.getContent(), className, classTargets);
+                if (patched == null) return;
+                this.foundClasses.add(className);
+                if (patched != entry.getContent()) entry.setContent(patched);
+            } else {
+                //Only the access flags are changed, so the constant pool and all method bodies can be copied
+                entry.visitClass(classVisitor -> new AccessVisitor(classVisitor, className, classTargets, this.foundClasses), true);
+            }
+            this.log.debug("Processed access transformer for class: {}", entry.getName());
         }
-    }
 
-    private record FieldTarget(String className, String fieldName, String fieldDesc, Consumer<FieldNode> mutator) implements ClassMutator {
         @Override
-        public void mutate(ClassNode classNode) {
-            FieldNode fieldNode = ASMUtils.getField(classNode, this.fieldName, this.fieldDesc);
-            if (fieldNode == null) throw new IllegalArgumentException("Field '" + this.fieldName + ":" + this.fieldDesc + "' not found in class '" + this.className + "'");
-            this.mutator.accept(fieldNode);
+        public boolean isStateless() {
+            return false; //The found classes are collected to warn about missing targets
         }
-    }
 
-    private record MethodTarget(String className, String methodName, String methodDesc, Consumer<MethodNode> mutator) implements ClassMutator {
         @Override
-        public void mutate(ClassNode classNode) {
-            MethodNode methodNode = ASMUtils.getMethod(classNode, this.methodName, this.methodDesc);
-            if (methodNode == null) throw new IllegalArgumentException("Method '" + this.methodName + this.methodDesc + "' not found in class '" + this.className + "'");
-            this.mutator.accept(methodNode);
+        public void finish() {
+            List<String> missingClasses = this.targets.keySet().stream().filter(className -> !this.foundClasses.contains(className)).sorted().toList();
+            if (!missingClasses.isEmpty()) {
+                this.log.warn("Access transformer target classes not found: {}", String.join(", ", missingClasses));
+            }
+        }
+
+        private static String getClassName(final String path) {
+            String name = path.substring(0, path.length() - 6);
+            if (name.toLowerCase(Locale.ROOT).startsWith("meta-inf/versions/") && name.indexOf('/', 18) != -1) {
+                name = name.substring(name.indexOf('/', 18) + 1);
+            }
+            return name;
+        }
+
+        /**
+         * Patch the access flags of the class, its fields and methods without parsing the whole class.
+         *
+         * @return The patched class, the same array if nothing changed or {@code null} if the class has a different name than expected
+         */
+        @Nullable
+        private static byte[] patchAccess(final byte[] classBytes, final String className, final List<AccessTarget> targets) {
+            ClassReader classReader = new ClassReader(classBytes);
+            if (!classReader.getClassName().equals(className)) return null;
+            byte[] patched = classBytes.clone();
+            char[] buffer = new char[classReader.getMaxStringLength()];
+            List<AccessTarget> missingTargets = new ArrayList<>(targets);
+
+            int offset = classReader.header;
+            int access = classReader.readUnsignedShort(offset);
+            for (AccessTarget target : targets) {
+                if (target instanceof ClassTarget classTarget) access = classTarget.mutator().mutate(access);
+            }
+            writeAccess(patched, offset, access);
+            offset += 6;
+            offset += 2 + classReader.readUnsignedShort(offset) * 2; //Interfaces
+
+            for (boolean fields : new boolean[]{true, false}) {
+                int count = classReader.readUnsignedShort(offset);
+                offset += 2;
+                for (int i = 0; i < count; i++) {
+                    String name = classReader.readUTF8(offset + 2, buffer);
+                    String descriptor = classReader.readUTF8(offset + 4, buffer);
+                    access = classReader.readUnsignedShort(offset);
+                    for (AccessTarget target : targets) {
+                        if (fields && target instanceof FieldTarget fieldTarget && fieldTarget.fieldName().equals(name) && fieldTarget.fieldDesc().equals(descriptor)) {
+                            access = fieldTarget.mutator().mutate(access);
+                            missingTargets.remove(target);
+                        } else if (!fields && target instanceof MethodTarget methodTarget && methodTarget.methodName().equals(name) && methodTarget.methodDesc().equals(descriptor)) {
+                            access = methodTarget.mutator().mutate(access);
+                            missingTargets.remove(target);
+                        }
+                    }
+                    writeAccess(patched, offset, access);
+                    int attributes = classReader.readUnsignedShort(offset + 6);
+                    offset += 8;
+                    for (int a = 0; a < attributes; a++) {
+                        offset += 6 + classReader.readInt(offset + 2);
+                    }
+                }
+            }
+            checkMissing(className, missingTargets);
+            return Arrays.equals(classBytes, patched) ? classBytes : patched;
+        }
+
+        private static void writeAccess(final byte[] classBytes, final int offset, final int access) {
+            classBytes[offset] = (byte) (access >>> 8);
+            classBytes[offset + 1] = (byte) access;
         }
     }
 
-    @FunctionalInterface
-    private interface AccessMutator {
-        int mutate(final int access);
+    private static class AccessVisitor extends ClassVisitor {
+        private final String className;
+        private final List<AccessTarget> targets;
+        private final Set<String> foundClasses;
+        private final List<AccessTarget> missingTargets;
+        private boolean matched;
+
+        private AccessVisitor(final ClassVisitor classVisitor, final String className, final List<AccessTarget> targets, final Set<String> foundClasses) {
+            super(Opcodes.ASM9, classVisitor);
+            this.className = className;
+            this.targets = targets;
+            this.foundClasses = foundClasses;
+            this.missingTargets = new ArrayList<>(targets);
+        }
+
+        @Override
+        public void visit(int version, int access, String name, String signature, String superName, String[] interfaces) {
+            this.matched = name.equals(this.className);
+            if (this.matched) {
+                this.foundClasses.add(name);
+                for (AccessTarget target : this.targets) {
+                    if (target instanceof ClassTarget classTarget) access = classTarget.mutator().mutate(access);
+                }
+            }
+            super.visit(version, access, name, signature, superName, interfaces);
+        }
+
+        @Override
+        public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+            if (this.matched) {
+                for (AccessTarget target : this.targets) {
+                    if (target instanceof FieldTarget fieldTarget && fieldTarget.fieldName().equals(name) && fieldTarget.fieldDesc().equals(descriptor)) {
+                        access = fieldTarget.mutator().mutate(access);
+                        this.missingTargets.remove(target);
+                    }
+                }
+            }
+            return super.visitField(access, name, descriptor, signature, value);
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            if (this.matched) {
+                for (AccessTarget target : this.targets) {
+                    if (target instanceof MethodTarget methodTarget && methodTarget.methodName().equals(name) && methodTarget.methodDesc().equals(descriptor)) {
+                        access = methodTarget.mutator().mutate(access);
+                        this.missingTargets.remove(target);
+                    }
+                }
+            }
+            return super.visitMethod(access, name, descriptor, signature, exceptions);
+        }
+
+        @Override
+        public void visitEnd() {
+            if (this.matched) checkMissing(this.className, this.missingTargets);
+            super.visitEnd();
+        }
     }
 
 }
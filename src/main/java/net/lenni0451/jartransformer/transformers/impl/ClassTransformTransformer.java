@@ -1,14 +1,16 @@
 package net.lenni0451.jartransformer.transformers.impl;
 
 import net.lenni0451.classtransform.TransformerManager;
-import net.lenni0451.classtransform.additionalclassprovider.FileSystemClassProvider;
 import net.lenni0451.classtransform.annotations.CReplaceCallback;
+import net.lenni0451.classtransform.annotations.CTransformer;
 import net.lenni0451.classtransform.utils.tree.BasicClassProvider;
 import net.lenni0451.commons.asm.io.ClassIO;
 import net.lenni0451.jartransformer.transformers.SpecializedTransformer;
 import net.lenni0451.jartransformer.transformers.Transformer;
+import net.lenni0451.jartransformer.transformers.base.BaseTransformer;
 import net.lenni0451.jartransformer.transformers.base.DependencyTransformer;
 import net.lenni0451.jartransformer.transformers.base.JarTransformer;
+import net.lenni0451.jartransformer.utils.IndexedClassProvider;
 import org.gradle.api.Project;
 import org.gradle.api.artifacts.Configuration;
 import org.gradle.api.file.ConfigurableFileCollection;
@@ -19,6 +21,7 @@ import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
 import org.gradle.api.tasks.*;
 import org.gradle.api.tasks.compile.JavaCompile;
+import org.objectweb.asm.ClassReader;
 import org.objectweb.asm.Type;
 import org.objectweb.asm.tree.AnnotationNode;
 import org.objectweb.asm.tree.ClassNode;
@@ -26,14 +29,19 @@ import org.slf4j.Logger;
 
 import javax.inject.Inject;
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.FileSystem;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
 
 import static net.lenni0451.commons.asm.ASMUtils.dot;
 
-public abstract class ClassTransformTransformer extends Transformer implements SpecializedTransformer<ClassTransformTransformer> {
+public abstract class ClassTransformTransformer extends Transformer implements SpecializedTransformer {
 
     @Inject
     public ClassTransformTransformer(final String name) {
@@ -71,7 +79,16 @@ public abstract class ClassTransformTransformer extends Transformer implements S
             return;
         }
 
-        TransformerManager transformerManager = new TransformerManager(new FileSystemClassProvider(fileSystem, new BasicClassProvider()));
+        //The classpath is needed to compute the frames of classes which extend classes of other dependencies
+        //Every class is only read once, so computing the frames of many classes doesn't look up the same classes again
+        try (IndexedClassProvider classProvider = new IndexedClassProvider(fileSystem, this.getClasspath(), new BasicClassProvider())) {
+            this.transformClasses(log, fileSystem, compiledClassesDir, new TransformerManager(classProvider));
+        }
+    }
+
+    private void transformClasses(final Logger log, final FileSystem fileSystem, final File compiledClassesDir, final TransformerManager transformerManager) throws Throwable {
+        Set<String> targets = new HashSet<>();
+        boolean[] wildcard = {false};
         this.iterateFiles(compiledClassesDir.toPath(), path -> {
             if (!path.getFileName().toString().endsWith(".class")) return;
 
@@ -83,23 +100,81 @@ public abstract class ClassTransformTransformer extends Transformer implements S
                 classNode.visibleAnnotations.add(new AnnotationNode(Type.getDescriptor(CReplaceCallback.class)));
 
                 transformerManager.addTransformer(classNode);
+                wildcard[0] |= !collectTargets(classNode, targets);
             } catch (Throwable t) {
                 //Only transformer classes are allowed in the compiled classes directory
                 log.error("Failed to add transformer class: {}", className, t);
                 throw t;
             }
         });
-        this.iterateFiles(fileSystem, path -> {
-            if (!path.getFileName().toString().endsWith(".class")) return;
+        if (wildcard[0]) {
+            //The targets are not known up front, the class names are read from the constant pool without parsing the classes
+            this.iterateFiles(fileSystem, path -> {
+                if (!path.getFileName().toString().endsWith(".class")) return;
+                this.transformClass(log, transformerManager, path);
+            });
+        } else {
+            //Only the targeted classes are opened, including their multi-release variants
+            List<Path> roots = new ArrayList<>();
+            roots.add(fileSystem.getPath("/"));
+            Path versions = fileSystem.getPath("/META-INF/versions");
+            if (Files.isDirectory(versions)) {
+                try (Stream<Path> stream = Files.list(versions)) {
+                    stream.filter(Files::isDirectory).forEach(roots::add);
+                }
+            }
+            for (String target : targets) {
+                for (Path root : roots) {
+                    Path path = root.resolve(target.replace('.', '/') + ".class");
+                    if (Files.isRegularFile(path)) this.transformClass(log, transformerManager, path);
+                }
+            }
+        }
+    }
+
+    private void transformClass(final Logger log, final TransformerManager transformerManager, final Path path) throws IOException {
+        byte[] classBytes = Files.readAllBytes(path);
+        String className = dot(new ClassReader(classBytes).getClassName());
+        byte[] transformedBytes = transformerManager.transform(className, classBytes);
+        if (transformedBytes != null) {
+            Files.write(path, transformedBytes);
+            log.debug("Transformed class: {}", className);
+        }
+    }
 
-            byte[] classBytes = Files.readAllBytes(path);
-            ClassNode classNode = ClassIO.fromBytes(classBytes);
-            byte[] transformedBytes = transformerManager.transform(dot(classNode.name), classBytes);
-            if (transformedBytes != null) {
-                Files.write(path, transformedBytes);
-                log.debug("Transformed class: {}", dot(classNode.name));
+    /**
+     * Collect the target classes of a ClassTransform transformer from its {@link CTransformer} annotation.
+     *
+     * @param classNode The transformer class
+     * @param targets   The set to add the targets to
+     * @return If all targets could be collected, {@code false} if the transformer targets classes by a pattern
+     */
+    private static boolean collectTargets(final ClassNode classNode, final Set<String> targets) {
+        AnnotationNode annotation = getAnnotation(classNode.visibleAnnotations);
+        if (annotation == null) annotation = getAnnotation(classNode.invisibleAnnotations);
+        if (annotation == null || annotation.values == null) return false;
+        for (int i = 0; i < annotation.values.size(); i += 2) {
+            String key = (String) annotation.values.get(i);
+            if (!(annotation.values.get(i + 1) instanceof List<?> values)) continue;
+            for (Object value : values) {
+                String target;
+                if (key.equals("value") && value instanceof Type type) target = type.getClassName();
+                else if (key.equals("name") && value instanceof String name) target = dot(name);
+                else continue;
+                if (target.contains("*")) return false;
+                targets.add(target);
             }
-        });
+        }
+        return true;
+    }
+
+    private static AnnotationNode getAnnotation(final List<AnnotationNode> annotations) {
+        if (annotations == null) return null;
+        String descriptor = Type.getDescriptor(CTransformer.class);
+        for (AnnotationNode annotation : annotations) {
+            if (annotation.desc.equals(descriptor)) return annotation;
+        }
+        return null;
     }
 
     private boolean isIncluded(final String className) {
@@ -116,39 +191,37 @@ public abstract class ClassTransformTransformer extends Transformer implements S
     }
 
     @Override
-    public void applySpecialized(Project project, List<ClassTransformTransformer> transformers, List<Object> contexts) {
-        SourceSet sourceSet = this.registerClassTransformSourceSet(project);
-        if (sourceSet == null || sourceSet.getAllJava().isEmpty()) return;
-
-        Configuration implementation = project.getConfigurations().getByName(sourceSet.getImplementationConfigurationName());
-        for (Object context : contexts) {
+    public void applySpecialized(Project project, BaseTransformer context) {
+        project.getPluginManager().withPlugin("java", plugin -> {
+            SourceSet sourceSet = this.registerClassTransformSourceSet(project);
+            String implementation = sourceSet.getImplementationConfigurationName();
             if (context instanceof JarTransformer jarTransformer) {
-                project.getDependencies().add(implementation.getName(), project.files(jarTransformer.getInputFile()));
+                project.getDependencies().add(implementation, project.files(jarTransformer.getInputFile()));
             } else if (context instanceof DependencyTransformer dependencyTransformer) {
-                implementation.extendsFrom(dependencyTransformer.getConfiguration().get());
+                //The configuration may not be set yet, so its dependencies are added once they are resolved
+                project.getConfigurations().named(implementation).configure(configuration -> {
+                    configuration.getDependencies().addAllLater(dependencyTransformer.getConfiguration().map(Configuration::getAllDependencies));
+                });
             }
-        }
-        for (ClassTransformTransformer transformer : transformers) {
-            project.getDependencies().add(implementation.getName(), transformer.getClasspath());
-        }
+            project.getDependencies().add(implementation, this.getClasspath());
 
-        Provider<Directory> outputDir = project.getTasks().named(sourceSet.getCompileJavaTaskName(), JavaCompile.class)
-                .flatMap(JavaCompile::getDestinationDirectory);
-        for (ClassTransformTransformer transformer : transformers) {
-            transformer.getCompiledClassesDir().set(outputDir);
-        }
+            Provider<Directory> outputDir = project.getTasks().named(sourceSet.getCompileJavaTaskName(), JavaCompile.class)
+                    .flatMap(JavaCompile::getDestinationDirectory);
+            //Without any transformer sources the classes directory is never created
+            Provider<Directory> noSources = project.getProviders().provider(() -> null);
+            this.getCompiledClassesDir().set(sourceSet.getAllJava().getElements().flatMap(sources -> sources.isEmpty() ? noSources : outputDir));
+        });
     }
 
     private SourceSet registerClassTransformSourceSet(final Project project) {
-        JavaPluginExtension extension = project.getExtensions().findByType(JavaPluginExtension.class);
-        if (extension == null) return null;
-        SourceSetContainer sourceSets = extension.getSourceSets();
-        SourceSet transformer = sourceSets.maybeCreate("transformers");
+        SourceSetContainer sourceSets = project.getExtensions().getByType(JavaPluginExtension.class).getSourceSets();
+        SourceSet transformer = sourceSets.findByName("transformers");
+        if (transformer != null) return transformer;
+        transformer = sourceSets.create("transformers");
         transformer.getJava().srcDir("src/transformers/java");
         transformer.getResources().srcDir("src/transformers/resources");
 
-        Configuration implementation = project.getConfigurations().getByName(transformer.getImplementationConfigurationName());
-        project.getDependencies().add(implementation.getName(), "net.lenni0451.classtransform:core:${classtransform_version}");
+        project.getDependencies().add(transformer.getImplementationConfigurationName(), "net.lenni0451.classtransform:core:${classtransform_version}");
         return transformer;
     }
 
@@ -1,24 +1,20 @@
 package net.lenni0451.jartransformer.transformers.impl;
 
-import lombok.extern.slf4j.Slf4j;
-import net.lenni0451.jartransformer.transformers.Transformer;
-import net.lenni0451.jartransformer.utils.DeletingFileVisitor;
+import net.lenni0451.jartransformer.transformers.EntryProcessor;
+import net.lenni0451.jartransformer.transformers.EntryTransformer;
+import net.lenni0451.jartransformer.utils.ExcludeMatcher;
 import org.gradle.api.provider.Property;
 import org.gradle.api.provider.SetProperty;
 import org.gradle.api.tasks.Input;
 import org.slf4j.Logger;
 
 import javax.inject.Inject;
-import java.nio.file.FileSystem;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.util.List;
+import java.util.Collections;
 import java.util.Locale;
 import java.util.Set;
-import java.util.stream.Stream;
+import java.util.stream.Collectors;
 
-@Slf4j
-public abstract class ExcludeTransformer extends Transformer {
+public abstract class ExcludeTransformer extends EntryTransformer {
 
     @Inject
     public ExcludeTransformer(final String name) {
@@ -37,39 +33,25 @@ public abstract class ExcludeTransformer extends Transformer {
     public abstract Property<Boolean> getReversed();
 
     @Override
-    public void transform(Logger log, FileSystem fileSystem) throws Throwable {
-        Set<String> excludes = this.getExcludes().get();
-        Set<String> regexExcludes = this.getRegexExcludes().get();
+    public EntryProcessor createProcessor(Logger log) {
+        Set<String> excludes = this.getExcludes().get().stream().map(s -> s.toLowerCase(Locale.ROOT)).collect(Collectors.toSet());
+        ExcludeMatcher matcher = new ExcludeMatcher(excludes, Collections.emptyList(), this.getRegexExcludes().get());
         boolean reversed = this.getReversed().get();
-
-        List<Path> toRemove;
-        try (Stream<Path> paths = Files.walk(fileSystem.getPath("/"))) {
-            toRemove = paths.filter(path -> {
-                String pathString = path.toString().toLowerCase(Locale.ROOT);
-                if (pathString.startsWith("/")) pathString = pathString.substring(1);
-                for (String s : excludes) {
-                    if (pathString.startsWith(s.toLowerCase(Locale.ROOT))) {
-                        return !reversed;
-                    }
-                }
-                for (String s : regexExcludes) {
-                    if (pathString.matches(s)) {
-                        return !reversed;
-                    }
+        return entry -> {
+            //Removing a directory also removes all of its children
+            //This is emulated by also checking all parent directories of the entry
+            String path = entry.getName().toLowerCase(Locale.ROOT);
+            int end = path.length();
+            while (true) {
+                if (matcher.matches(path, end) != reversed) {
+                    entry.delete();
+                    log.debug("Removed file: {}", entry.getName());
+                    return;
                 }
-                return reversed;
-            }).toList();
-        }
-        for (Path path : toRemove) {
-            try {
-                if (!Files.exists(path)) continue;
-
-                Files.walkFileTree(path, new DeletingFileVisitor());
-                log.debug("Removed file: {}", path);
-            } catch (Throwable t) {
-                throw new IllegalStateException("Failed to remove file: " + path, t);
+                end = path.lastIndexOf('/', end - 1);
+                if (end <= 0) return;
             }
-        }
+        };
     }
 
 }
@@ -1,31 +1,33 @@
 package net.lenni0451.jartransformer.transformers.impl;
 
-import net.lenni0451.commons.asm.io.ClassIO;
-import net.lenni0451.commons.asm.mappings.Remapper;
-import net.lenni0451.jartransformer.transformers.Transformer;
+import net.lenni0451.jartransformer.transformers.EntryProcessor;
+import net.lenni0451.jartransformer.transformers.EntryTransformer;
+import net.lenni0451.jartransformer.transformers.TransformEntry;
 import net.lenni0451.jartransformer.utils.ASMUtils;
+import net.lenni0451.jartransformer.utils.ConstantPoolFilter;
 import net.lenni0451.jartransformer.utils.Log4JPluginCache;
 import net.lenni0451.jartransformer.utils.PackageRemapper;
+import net.lenni0451.jartransformer.utils.StringMutatingClassVisitor;
 import org.gradle.api.provider.MapProperty;
 import org.gradle.api.provider.Property;
 import org.gradle.api.provider.SetProperty;
 import org.gradle.api.tasks.Input;
-import org.objectweb.asm.tree.ClassNode;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.commons.ClassRemapper;
 import org.slf4j.Logger;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
+import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.FileSystem;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.*;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
-import java.util.stream.Stream;
+import java.util.stream.Collectors;
 
-public abstract class RepackageTransformer extends Transformer {
+public abstract class RepackageTransformer extends EntryTransformer {
 
     @Inject
     public RepackageTransformer(final String name) {
@@ -73,190 +75,198 @@ public abstract class RepackageTransformer extends Transformer {
     public abstract Property<Boolean> getRemapLog4jPlugins();
 
     @Override
-    public void transform(Logger log, FileSystem fileSystem) throws Throwable {
-        if (!this.getRelocations().get().isEmpty()) {
-            PackageRemapper remapper = new PackageRemapper(this.getRelocations().get());
-            this.remap(log, fileSystem, remapper);
-        }
-        if (this.getRemoveEmptyDirs().get()) {
-            this.removeEmptyDirectories(log, fileSystem);
-        }
+    public EntryProcessor createProcessor(Logger log) {
+        Map<String, String> relocations = this.getRelocations().get();
+        boolean removeEmptyDirs = this.getRemoveEmptyDirs().get();
+        if (relocations.isEmpty() && !removeEmptyDirs) return null;
+        boolean remapStrings = this.getRemapStrings().get();
+        Set<String> prefixes = relocations.keySet().stream().map(key -> key.replace('.', '/')).collect(Collectors.toSet());
+        Set<String> stringPrefixes = remapStrings ? prefixes.stream().map(prefix -> prefix.replace('/', '.')).collect(Collectors.toSet()) : Set.of();
+        return new RepackageProcessor(
+                log,
+                relocations.isEmpty() ? null : new PackageRemapper(relocations),
+                new ConstantPoolFilter(prefixes, stringPrefixes),
+                this.getWhitelist().get(),
+                this.getBlacklist().get(),
+                this.getRemapClasses().get(),
+                this.getMoveFiles().get(),
+                remapStrings,
+                this.getRemapServices().get(),
+                this.getRemapManifest().get(),
+                removeEmptyDirs,
+                this.getRemapLog4jPlugins().get()
+        );
     }
 
-    private void remap(final Logger log, final FileSystem fileSystem, final PackageRemapper remapper) throws IOException {
-        this.iterateFiles(fileSystem, path -> {
-            try {
-                String pathString = path.toString();
-                boolean slash = pathString.startsWith("/");
-                if (slash) pathString = pathString.substring(1);
-                if (!this.shouldProcess(pathString)) return;
-                if (path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".class")) {
-                    this.remapClass(log, path, remapper);
-                } else if (pathString.toLowerCase(Locale.ROOT).startsWith("meta-inf/")) {
-                    this.remapServices(log, fileSystem, path, pathString, slash, remapper);
-                    this.remapManifest(log, path, remapper);
-                    this.remapLog4jPlugins(log, path, pathString, remapper);
-                }
 
-                if (this.getMoveFiles().get()) {
-                    if (pathString.toLowerCase(Locale.ROOT).startsWith("meta-inf/versions/")) {
-                        String prefix = pathString.substring(0, pathString.indexOf('/', 18) + 1);
-                        String suffix = pathString.substring(pathString.indexOf('/', 18) + 1);
-                        String remappedSuffix = remapper.mapUnchecked(suffix);
-                        if (remappedSuffix != null && !suffix.equals(remappedSuffix)) {
-                            Path newPath = fileSystem.getPath((slash ? "/" : "") + prefix + remappedSuffix);
-                            Files.createDirectories(newPath.getParent());
-                            Files.move(path, newPath);
-                            log.debug("Remapped versioned file: {} -> {}", path, newPath);
-                        }
-                    } else {
-                        String remappedPath = remapper.mapUnchecked(pathString);
-                        if (remappedPath != null && !pathString.equals(remappedPath)) {
-                            Path newPath = fileSystem.getPath((slash ? "/" : "") + remappedPath);
-                            Files.createDirectories(newPath.getParent());
-                            Files.move(path, newPath);
-                            log.debug("Remapped file: {} -> {}", path, newPath);
-                        }
-                    }
-                }
+    /**
+     * The settings are copied into the processor, so entries can be remapped concurrently.
+     */
+    private record RepackageProcessor(Logger log, @Nullable PackageRemapper remapper, ConstantPoolFilter classFilter, Set<String> whitelist, Set<String> blacklist,
+                                      boolean remapClasses, boolean moveFiles, boolean remapStrings, boolean remapServices,
+                                      boolean remapManifest, boolean removeEmptyDirs, boolean remapLog4jPlugins) implements EntryProcessor {
+        @Override
+        public void process(TransformEntry entry) throws Throwable {
+            if (this.remapper == null || entry.isDirectory()) return;
+            try {
+                this.remap(entry);
             } catch (Throwable t) {
-                log.error("Failed to remap file: {}", path, t);
+                this.log.error("Failed to remap file: {}", entry.getName(), t);
                 throw t;
             }
-        });
-    }
+        }
+
+        @Override
+        public boolean removesEmptyDirectories() {
+            return this.removeEmptyDirs;
+        }
 
-    private boolean shouldProcess(final String pathString) {
-        if (this.getWhitelist().get().isEmpty() && this.getBlacklist().get().isEmpty()) return true;
-        if (!this.getBlacklist().get().isEmpty()) {
-            for (String s : this.getBlacklist().get()) {
-                if (pathString.startsWith(s)) {
-                    return false; //If any blacklist entry matches, don't process
+        private void remap(final TransformEntry entry) throws IOException {
+            String pathString = entry.getName();
+            if (!this.shouldProcess(pathString)) return;
+            if (entry.isClass()) {
+                this.remapClass(entry);
+            } else if (pathString.toLowerCase(Locale.ROOT).startsWith("meta-inf/")) {
+                this.remapServices(entry);
+                this.remapManifest(entry);
+                this.remapLog4jPlugins(entry);
+            }
+
+            if (this.moveFiles) {
+                pathString = entry.getName();
+                if (pathString.toLowerCase(Locale.ROOT).startsWith("meta-inf/versions/")) {
+                    String prefix = pathString.substring(0, pathString.indexOf('/', 18) + 1);
+                    String suffix = pathString.substring(pathString.indexOf('/', 18) + 1);
+                    String remappedSuffix = this.remapper.mapUnchecked(suffix);
+                    if (remappedSuffix != null && !suffix.equals(remappedSuffix)) {
+                        entry.setName(prefix + remappedSuffix);
+                        this.log.debug("Remapped versioned file: {} -> {}", pathString, entry.getName());
+                    }
+                } else {
+                    String remappedPath = this.remapper.mapUnchecked(pathString);
+                    if (remappedPath != null && !pathString.equals(remappedPath)) {
+                        entry.setName(remappedPath);
+                        this.log.debug("Remapped file: {} -> {}", pathString, remappedPath);
+                    }
                 }
             }
         }
-        if (!this.getWhitelist().get().isEmpty()) {
-            for (String s : this.getWhitelist().get()) {
-                if (pathString.startsWith(s)) {
-                    return true;
+
+        private boolean shouldProcess(final String pathString) {
+            if (this.whitelist.isEmpty() && this.blacklist.isEmpty()) return true;
+            if (!this.blacklist.isEmpty()) {
+                for (String s : this.blacklist) {
+                    if (pathString.startsWith(s)) {
+                        return false; //If any blacklist entry matches, don't process
+                    }
                 }
             }
-            return false; //If no whitelist entry matches, don't process
+            if (!this.whitelist.isEmpty()) {
+                for (String s : this.whitelist) {
+                    if (pathString.startsWith(s)) {
+                        return true;
+                    }
+                }
+                return false; //If no whitelist entry matches, don't process
+            }
+            return true; //If the whitelist is empty, and it's not blacklisted, process the file
         }
-        return true; //If the whitelist is empty, and it's not blacklisted, process the file
-    }
 
-    private void remapClass(final Logger log, final Path path, final PackageRemapper remapper) throws IOException {
-        if (!this.getRemapClasses().get()) return;
+        private void remapClass(final TransformEntry entry) throws IOException {
+            if (!this.remapClasses) return;
+            //Classes which don't reference any relocated package are kept byte for byte
+            //If another transformer already changed the class, the raw bytes might be outdated
+            if (entry.isContentSerialized() && !this.classFilter.matches(entry.getContent())) return;
 
-        byte[] bytes = Files.readAllBytes(path);
-        ClassNode node = Remapper.remap(ClassIO.fromBytes(bytes), remapper);
-        if (this.getRemapStrings().get()) {
-            ASMUtils.mutateStrings(node, s -> ASMUtils.remap(remapper, s));
+            //The old names must not be copied from the original constant pool
+            entry.visitClass(classVisitor -> {
+                ClassVisitor next = classVisitor;
+                if (this.remapStrings) next = new StringMutatingClassVisitor(next, s -> ASMUtils.remap(this.remapper, s));
+                return new ClassRemapper(next, this.remapper);
+            }, false);
+            this.log.debug("Remapped class: {}", entry.getName());
         }
-        Files.write(path, ClassIO.toStacklessBytes(node));
-        log.debug("Remapped class: {}", path);
-    }
 
-    private void remapServices(final Logger log, final FileSystem fileSystem, final Path path, final String pathString, final boolean slash, final PackageRemapper remapper) throws IOException {
-        if (!this.getRemapServices().get()) return;
-        if (!pathString.toLowerCase(Locale.ROOT).startsWith("meta-inf/services/")) return;
-
-        String serviceName = path.toString().substring(19);
-        String remappedServiceName = ASMUtils.remap(remapper, serviceName);
-        String[] serviceImpls = Files.readAllLines(path, StandardCharsets.UTF_8).toArray(new String[0]);
-        String[] remappedServiceImpls = new String[serviceImpls.length];
-        boolean modified = false;
-        for (int i = 0; i < serviceImpls.length; i++) {
-            String serviceImpl = serviceImpls[i];
-            String remappedServiceImpl = ASMUtils.remap(remapper, serviceImpl);
-            if (serviceImpl.startsWith("#") || remappedServiceImpl == null) {
-                remappedServiceImpls[i] = serviceImpl;
-            } else {
-                remappedServiceImpls[i] = remappedServiceImpl;
-                modified |= !serviceImpl.equals(remappedServiceImpl);
-            }
-        }
-        if (modified) {
-            Files.writeString(path, String.join("\n", remappedServiceImpls));
-            log.info("Remapped service implementations: {} -> {}", String.join(", ", serviceImpls), String.join(", ", remappedServiceImpls));
-        }
-        if (remappedServiceName != null && !serviceName.equals(remappedServiceName)) {
-            Path newPath = fileSystem.getPath((slash ? "/" : "") + "META-INF/services/" + remappedServiceName);
-            Files.move(path, newPath);
-            log.info("Remapped service name: {} -> {}", serviceName, remappedServiceName);
-        }
-    }
+        private void remapServices(final TransformEntry entry) throws IOException {
+            if (!this.remapServices) return;
+            if (!entry.getName().toLowerCase(Locale.ROOT).startsWith("meta-inf/services/")) return;
 
-    private void remapManifest(final Logger log, final Path path, final PackageRemapper remapper) throws IOException {
-        if (!this.getRemapManifest().get()) return;
-        if (!path.getFileName().toString().equalsIgnoreCase("manifest.mf")) return;
-
-        Manifest manifest = new Manifest(Files.newInputStream(path));
-        List<Attributes> allAttributes = new ArrayList<>();
-        allAttributes.add(manifest.getMainAttributes());
-        allAttributes.addAll(manifest.getEntries().values());
-
-        boolean modified = false;
-        for (Attributes attributes : allAttributes) {
-            for (Map.Entry<Object, Object> entry : attributes.entrySet()) {
-                String value = entry.getValue().toString();
-                String remappedValue = ASMUtils.remap(remapper, value);
-                if (remappedValue != null && !value.equals(remappedValue)) {
-                    entry.setValue(remappedValue);
-                    modified = true;
+            String serviceName = entry.getName().substring(18);
+            String remappedServiceName = ASMUtils.remap(this.remapper, serviceName);
+            String[] serviceImpls = new String(entry.getContent(), StandardCharsets.UTF_8).lines().toArray(String[]::new);
+            String[] remappedServiceImpls = new String[serviceImpls.length];
+            boolean modified = false;
+            for (int i = 0; i < serviceImpls.length; i++) {
+                String serviceImpl = serviceImpls[i];
+                String remappedServiceImpl = ASMUtils.remap(this.remapper, serviceImpl);
+                if (serviceImpl.startsWith("#") || remappedServiceImpl == null) {
+                    remappedServiceImpls[i] = serviceImpl;
+                } else {
+                    remappedServiceImpls[i] = remappedServiceImpl;
+                    modified |= !serviceImpl.equals(remappedServiceImpl);
                 }
             }
+            if (modified) {
+                entry.setContent(String.join("\n", remappedServiceImpls).getBytes(StandardCharsets.UTF_8));
+                this.log.info("Remapped service implementations: {} -> {}", String.join(", ", serviceImpls), String.join(", ", remappedServiceImpls));
+            }
+            if (remappedServiceName != null && !serviceName.equals(remappedServiceName)) {
+                entry.setName(entry.getName().substring(0, 18) + remappedServiceName);
+                this.log.info("Remapped service name: {} -> {}", serviceName, remappedServiceName);
+            }
         }
 
-        if (modified) {
-            ByteArrayOutputStream baos = new ByteArrayOutputStream();
-            manifest.write(baos);
-            Files.write(path, baos.toByteArray());
-            log.info("Remapped manifest: {}", path);
-        }
-    }
+        private void remapManifest(final TransformEntry entry) throws IOException {
+            if (!this.remapManifest) return;
+            if (!entry.getFileName().equalsIgnoreCase("manifest.mf")) return;
+
+            Manifest manifest = new Manifest(new ByteArrayInputStream(entry.getContent()));
+            List<Attributes> allAttributes = new ArrayList<>();
+            allAttributes.add(manifest.getMainAttributes());
+            allAttributes.addAll(manifest.getEntries().values());
 
-    private void remapLog4jPlugins(final Logger log, final Path path, final String pathString, final PackageRemapper remapper) throws IOException {
-        if (!this.getRemapLog4jPlugins().get()) return;
-        if (!pathString.toLowerCase(Locale.ROOT).equals("meta-inf/org/apache/logging/log4j/core/config/plugins/log4j2plugins.dat")) return;
-
-        Log4JPluginCache pluginCache = Log4JPluginCache.deserialize(Files.readAllBytes(path));
-        boolean modified = false;
-        for (String category : pluginCache.getCategories()) {
-            Map<String, Log4JPluginCache.PluginEntry> plugins = pluginCache.getCategory(category);
-            for (Log4JPluginCache.PluginEntry plugin : plugins.values()) {
-                String className = plugin.getClassName();
-                String remappedName = ASMUtils.remap(remapper, className);
-                if (remappedName != null && !className.equals(remappedName)) {
-                    plugin.setClassName(remappedName);
-                    modified = true;
-                    log.debug("Remapped Log4J plugin class: {} -> {}", className, remappedName);
+            boolean modified = false;
+            for (Attributes attributes : allAttributes) {
+                for (Map.Entry<Object, Object> attribute : attributes.entrySet()) {
+                    String value = attribute.getValue().toString();
+                    String remappedValue = ASMUtils.remap(this.remapper, value);
+                    if (remappedValue != null && !value.equals(remappedValue)) {
+                        attribute.setValue(remappedValue);
+                        modified = true;
+                    }
                 }
             }
+
+            if (modified) {
+                ByteArrayOutputStream baos = new ByteArrayOutputStream();
+                manifest.write(baos);
+                entry.setContent(baos.toByteArray());
+                this.log.info("Remapped manifest: {}", entry.getName());
+            }
         }
-        if (modified) {
-            Files.write(path, pluginCache.serialize());
-            log.info("Remapped Log4J plugins: {}", path);
-        }
-    }
 
-    private void removeEmptyDirectories(final Logger log, final FileSystem fileSystem) throws IOException {
-        try (Stream<Path> paths = Files.walk(fileSystem.getPath("/"))) {
-            paths
-                    .filter(Files::isDirectory)
-                    .sorted((p1, p2) -> p2.toString().length() - p1.toString().length())
-                    .forEach(path -> {
-                        try {
-                            try (Stream<Path> dirStream = Files.list(path)) {
-                                if (dirStream.anyMatch(p -> true)) return;
-                                Files.delete(path);
-                                log.debug("Removed empty directory: {}", path);
-                            }
-                        } catch (Throwable t) {
-                            throw new IllegalStateException("Failed to remove empty directory: " + path, t);
-                        }
-                    });
+        private void remapLog4jPlugins(final TransformEntry entry) throws IOException {
+            if (!this.remapLog4jPlugins) return;
+            if (!entry.getName().toLowerCase(Locale.ROOT).equals("meta-inf/org/apache/logging/log4j/core/config/plugins/log4j2plugins.dat")) return;
+
+            Log4JPluginCache pluginCache = Log4JPluginCache.deserialize(entry.getContent());
+            boolean modified = false;
+            for (String category : pluginCache.getCategories()) {
+                Map<String, Log4JPluginCache.PluginEntry> plugins = pluginCache.getCategory(category);
+                for (Log4JPluginCache.PluginEntry plugin : plugins.values()) {
+                    String className = plugin.getClassName();
+                    String remappedName = ASMUtils.remap(this.remapper, className);
+                    if (remappedName != null && !className.equals(remappedName)) {
+                        plugin.setClassName(remappedName);
+                        modified = true;
+                        this.log.debug("Remapped Log4J plugin class: {} -> {}", className, remappedName);
+                    }
+                }
+            }
+            if (modified) {
+                entry.setContent(pluginCache.serialize());
+                this.log.info("Remapped Log4J plugins: {}", entry.getName());
+            }
         }
     }
 
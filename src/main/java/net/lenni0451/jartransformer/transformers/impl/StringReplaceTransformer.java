@@ -1,25 +1,33 @@
 package net.lenni0451.jartransformer.transformers.impl;
 
-import net.lenni0451.commons.asm.io.ClassIO;
-import net.lenni0451.jartransformer.transformers.Transformer;
-import net.lenni0451.jartransformer.utils.ASMUtils;
+import net.lenni0451.jartransformer.transformers.EntryProcessor;
+import net.lenni0451.jartransformer.transformers.EntryTransformer;
+import net.lenni0451.jartransformer.utils.ByteNeedles;
+import net.lenni0451.jartransformer.utils.ConstantPoolFilter;
+import net.lenni0451.jartransformer.utils.StringMutatingClassVisitor;
+import net.lenni0451.jartransformer.utils.StringReplacer;
 import org.gradle.api.provider.ListProperty;
 import org.gradle.api.provider.MapProperty;
 import org.gradle.api.tasks.Input;
 import org.mozilla.universalchardet.UniversalDetector;
-import org.objectweb.asm.tree.ClassNode;
 import org.slf4j.Logger;
 
+import javax.annotation.Nullable;
 import javax.inject.Inject;
-import java.io.ByteArrayInputStream;
+import java.io.*;
 import java.nio.charset.Charset;
-import java.nio.file.FileSystem;
-import java.nio.file.Files;
-import java.util.List;
-import java.util.Locale;
-import java.util.Map;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
 
-public abstract class StringReplaceTransformer extends Transformer {
+public abstract class StringReplaceTransformer extends EntryTransformer {
+
+    /**
+     * The charsets in which text files are searched for the replacement keys before their charset is detected.<br>
+     * Only ASCII keys are searched, they are encoded the same in all ASCII compatible charsets (e.g. UTF-8 or windows-1252).
+     */
+    private static final List<Charset> NEEDLE_CHARSETS = List.of(
+            StandardCharsets.US_ASCII, StandardCharsets.UTF_16LE, StandardCharsets.UTF_16BE, Charset.forName("UTF-32LE"), Charset.forName("UTF-32BE")
+    );
 
     @Inject
     public StringReplaceTransformer(final String name) {
@@ -37,46 +45,64 @@ public abstract class StringReplaceTransformer extends Transformer {
     public abstract MapProperty<String, Object> getRegexReplacements();
 
     @Override
-    public void transform(Logger log, FileSystem fileSystem) throws Throwable {
-        List<String> extensions = this.getFileExtensions().get();
+    public EntryProcessor createProcessor(Logger log) {
+        List<String> extensions = this.getFileExtensions().get().stream().map(extension -> extension.toLowerCase(Locale.ROOT)).toList();
         Map<String, Object> replacements = this.getReplacements().get();
         Map<String, Object> regexReplacements = this.getRegexReplacements().get();
-        this.iterateFiles(fileSystem, path -> {
-            byte[] modifiedBytes = null;
+        if (replacements.isEmpty() && regexReplacements.isEmpty()) return null;
+        StringReplacer replacer = new StringReplacer(toStringMap(replacements), toStringMap(regexReplacements));
+        //Regexes could match anything, so files can only be skipped if there are literal replacements only
+        //Non-ASCII keys are encoded differently by every charset the content could be decoded with, so they can't be searched for either
+        ByteNeedles needles = replacer.hasRegexReplacements() || !isAscii(replacer.getLiterals()) ? null : toNeedles(replacer.getLiterals());
+        //All strings of a class are stored in its constant pool, so classes without any key can be skipped without parsing them
+        ConstantPoolFilter classFilter = replacer.hasRegexReplacements() ? null : new ConstantPoolFilter(List.of(), List.of(), replacer.getLiterals());
+        return entry -> {
+            if (entry.isDirectory()) return;
+            String fileName = entry.getFileName().toLowerCase(Locale.ROOT);
             for (String extension : extensions) {
-                if (path.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(extension.toLowerCase(Locale.ROOT))) {
-                    byte[] bytes = Files.readAllBytes(path);
-                    if (extension.equalsIgnoreCase(".class")) {
-                        modifiedBytes = this.transformClass(bytes, replacements, regexReplacements);
-                    } else {
-                        modifiedBytes = this.transformText(log, bytes, replacements, regexReplacements);
+                if (!fileName.endsWith(extension)) continue;
+                if (extension.equals(".class")) {
+                    //If another transformer already changed the class, the raw bytes might be outdated
+                    if (classFilter != null && entry.isContentSerialized() && !classFilter.matches(entry.getContent())) break;
+                    //Replaced strings must not be copied from the original constant pool
+                    entry.visitClass(classVisitor -> new StringMutatingClassVisitor(classVisitor, replacer::replace), false);
+                    log.debug("Processed string replace transformer for class: {}", entry.getName());
+                } else {
+                    byte[] modifiedBytes = this.transformText(log, entry.getContent(), replacer, needles);
+                    if (modifiedBytes != null) {
+                        entry.setContent(modifiedBytes);
+                        log.debug("Processed string replace transformer for file: {}", entry.getName());
                     }
-                    break;
                 }
+                break;
             }
-            if (modifiedBytes != null) {
-                Files.write(path, modifiedBytes);
-                log.debug("Processed string replace transformer for class: {}", path);
-            }
-        });
+        };
     }
 
-    private byte[] transformClass(final byte[] bytes, final Map<String, Object> replacements, final Map<String, Object> regexReplacements) {
-        ClassNode node = ClassIO.fromBytes(bytes);
-        boolean modified = ASMUtils.mutateStrings(node, s -> {
-            for (Map.Entry<String, Object> entry : replacements.entrySet()) {
-                s = s.replace(entry.getKey(), String.valueOf(entry.getValue()));
-            }
-            for (Map.Entry<String, Object> entry : regexReplacements.entrySet()) {
-                s = s.replaceAll(entry.getKey(), String.valueOf(entry.getValue()));
-            }
-            return s;
-        });
-        if (!modified) return null;
-        return ClassIO.toStacklessBytes(node);
+    private static Map<String, String> toStringMap(final Map<String, Object> map) {
+        Map<String, String> out = new LinkedHashMap<>();
+        for (Map.Entry<String, Object> entry : map.entrySet()) {
+            out.put(entry.getKey(), String.valueOf(entry.getValue()));
+        }
+        return out;
+    }
+
+    private static boolean isAscii(final Set<String> literals) {
+        return literals.stream().allMatch(literal -> StandardCharsets.US_ASCII.newEncoder().canEncode(literal));
+    }
+
+    private static ByteNeedles toNeedles(final Set<String> literals) {
+        List<byte[]> needles = new ArrayList<>();
+        for (String literal : literals) {
+            for (Charset charset : NEEDLE_CHARSETS) needles.add(literal.getBytes(charset));
+        }
+        return new ByteNeedles(needles);
     }
 
-    private byte[] transformText(final Logger log, final byte[] bytes, final Map<String, Object> replacements, final Map<String, Object> regexReplacements) {
+    private byte[] transformText(final Logger log, final byte[] bytes, final StringReplacer replacer, @Nullable final ByteNeedles needles) throws IOException {
+        //Most files don't contain any of the keys, they are skipped without detecting the charset and decoding them
+        if (needles != null && !needles.containedIn(bytes)) return null;
+
         Charset charset;
         try {
             charset = Charset.forName(UniversalDetector.detectCharset(new ByteArrayInputStream(bytes)));
@@ -84,15 +110,18 @@ public abstract class StringReplaceTransformer extends Transformer {
             log.debug("Could not detect charset, falling back to default charset", t);
             charset = Charset.defaultCharset();
         }
-        String content = new String(bytes, charset);
-        String newContent = content;
-        for (Map.Entry<String, Object> entry : replacements.entrySet()) {
-            newContent = newContent.replace(entry.getKey(), String.valueOf(entry.getValue()));
-        }
-        for (Map.Entry<String, Object> entry : regexReplacements.entrySet()) {
-            newContent = newContent.replaceAll(entry.getKey(), String.valueOf(entry.getValue()));
+        if (!replacer.hasRegexReplacements()) {
+            //Literal replacements can be streamed without keeping a decoded copy of the whole file
+            ByteArrayOutputStream baos = new ByteArrayOutputStream(bytes.length);
+            try (Reader reader = new InputStreamReader(new ByteArrayInputStream(bytes), charset); Writer writer = new OutputStreamWriter(baos, charset)) {
+                if (!replacer.replace(reader, writer)) return null;
+            }
+            return baos.toByteArray();
         }
-        if (newContent.equals(content)) return null;
+
+        String content = new String(bytes, charset);
+        String newContent = replacer.replace(content);
+        if (newContent == content) return null;
         return newContent.getBytes(charset);
     }
 
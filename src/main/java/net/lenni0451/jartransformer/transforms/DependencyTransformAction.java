@@ -2,18 +2,26 @@ package net.lenni0451.jartransformer.transforms;
 
 import lombok.SneakyThrows;
 import lombok.extern.slf4j.Slf4j;
+import net.lenni0451.jartransformer.transformers.EntryCache;
 import net.lenni0451.jartransformer.transformers.Transformer;
+import net.lenni0451.jartransformer.transformers.TransformerMetrics;
 import org.gradle.api.artifacts.transform.*;
+import org.gradle.api.file.DirectoryProperty;
 import org.gradle.api.file.FileSystemLocation;
 import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
 import org.gradle.api.provider.Provider;
+import org.gradle.api.tasks.Internal;
 import org.gradle.api.tasks.Nested;
 import org.gradle.api.tasks.PathSensitive;
 import org.gradle.api.tasks.PathSensitivity;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
+import java.util.List;
 
 @Slf4j
 @CacheableTransform
@@ -27,15 +35,66 @@ public abstract class DependencyTransformAction implements TransformAction<Depen
     @SneakyThrows
     public void transform(TransformOutputs outputs) {
         File input = this.getInputArtifact().get().getAsFile();
+        List<Transformer> transformers = this.getParameters().getTransformers().get();
+        int parallelism = this.getParameters().getParallelism().getOrElse(1);
+        EntryCache.Settings cache = EntryCache.Settings.of(this.getParameters().getEntryCacheDirectory().getAsFile().getOrNull(), this.getParameters().getEntryCacheSize().getOrElse(0L));
+        File reportDirectory = this.getParameters().getReportDirectory().getAsFile().getOrNull();
+        TransformerMetrics metrics = new TransformerMetrics(this.getParameters().getTransformerName().get(), input.getName(), reportDirectory != null);
+        //Gradle only tells the location of the transform workspace when an output is registered and every registered output has to exist
         File output = outputs.file(input.getName().replace(".jar", "-repackaged.jar"));
-        Files.copy(input.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
-        Transformer.applyAll(log, output, this.getParameters().getTransformers().get());
+        //The jar is transformed next to the output, so it can be moved into place without copying it between file systems
+        Path tempFile = Files.createTempFile(output.getParentFile().toPath(), output.getName(), ".tmp");
+        try {
+            if (Transformer.transformAll(log, input, tempFile.toFile(), transformers, parallelism, cache, metrics)) {
+                Files.move(tempFile, output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            } else {
+                log.debug("The transformers don't change {}, linking it as is", input.getName());
+                linkOrCopy(input.toPath(), output.toPath());
+            }
+        } finally {
+            Files.deleteIfExists(tempFile);
+        }
+        //Every dependency is transformed on its own, printing all of them would flood the build output
+        metrics.report(log, false, reportDirectory, input);
+    }
+
+    private static void linkOrCopy(final Path source, final Path target) throws IOException {
+        try {
+            Files.deleteIfExists(target);
+            Files.createLink(target, source);
+        } catch (IOException | UnsupportedOperationException e) {
+            //Hard links only work on the same file system and are not supported everywhere
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
     }
 
 
     public static abstract class Parameters implements TransformParameters {
+        /**
+         * The name of the dependency transformer, only used to label the JFR events.
+         */
+        @Internal
+        public abstract Property<String> getTransformerName();
+
         @Nested
         public abstract ListProperty<Transformer> getTransformers();
+
+        @Internal
+        public abstract Property<Integer> getParallelism();
+
+        @Internal
+        public abstract DirectoryProperty getEntryCacheDirectory();
+
+        @Internal
+        public abstract Property<Long> getEntryCacheSize();
+
+        /**
+         * The reports are diagnostics of the current build and not outputs of the transform.<br>
+         * Adding them to the outputs would add them to the artifacts of the transformed dependency, so they are written to this directory instead.
+         * If the transformed jar is taken from the build cache, no report is written.
+         */
+        @Internal
+        public abstract DirectoryProperty getReportDirectory();
     }
 
 }
@@ -0,0 +1,60 @@
+package net.lenni0451.jartransformer.utils;
+
+import java.util.*;
+
+/**
+ * A set of byte sequences which can be searched for in raw data.<br>
+ * The needles are bucketed by their first byte, so most positions can be skipped with a single array lookup.
+ */
+public class ByteNeedles {
+
+    private final byte[][][] buckets = new byte[256][][];
+    private final boolean empty;
+
+    public ByteNeedles(final Collection<byte[]> needles) {
+        Map<Integer, List<byte[]>> buckets = new HashMap<>();
+        for (byte[] needle : needles) {
+            if (needle.length == 0) continue;
+            List<byte[]> bucket = buckets.computeIfAbsent(needle[0] & 0xFF, k -> new ArrayList<>());
+            if (bucket.stream().noneMatch(other -> Arrays.equals(other, needle))) bucket.add(needle);
+        }
+        for (Map.Entry<Integer, List<byte[]>> entry : buckets.entrySet()) {
+            this.buckets[entry.getKey()] = entry.getValue().toArray(new byte[0][]);
+        }
+        this.empty = buckets.isEmpty();
+    }
+
+    public boolean isEmpty() {
+        return this.empty;
+    }
+
+    /**
+     * Check if any needle starts at the given offset.
+     *
+     * @param data   The data to search in
+     * @param offset The offset of the needle
+     * @param end    The exclusive end of the searched region
+     * @return If a needle was found at the offset
+     */
+    public boolean matchesAt(final byte[] data, final int offset, final int end) {
+        if (offset >= end) return false;
+        byte[][] bucket = this.buckets[data[offset] & 0xFF];
+        if (bucket == null) return false;
+        for (byte[] needle : bucket) {
+            if (needle.length <= end - offset && Arrays.equals(data, offset, offset + needle.length, needle, 0, needle.length)) return true;
+        }
+        return false;
+    }
+
+    /**
+     * @param data The data to search in
+     * @return If any needle is contained in the data
+     */
+    public boolean containedIn(final byte[] data) {
+        for (int i = 0; i < data.length; i++) {
+            if (this.matchesAt(data, i, data.length)) return true;
+        }
+        return false;
+    }
+
+}
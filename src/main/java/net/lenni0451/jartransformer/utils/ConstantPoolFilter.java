@@ -0,0 +1,136 @@
+package net.lenni0451.jartransformer.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A cheap scan over the raw constant pool of a class to check if it could reference any of the given prefixes.<br>
+ * Class names, descriptors, signatures and string constants are all stored as UTF8 constants, so only those are checked.
+ * Prefixes match at the start of a constant and after every {@code L} (object types in descriptors and signatures), substrings match anywhere in a constant.<br>
+ * The scan may report false positives, but never false negatives.
+ */
+public class ConstantPoolFilter {
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_LONG = 5;
+    private static final int CONSTANT_DOUBLE = 6;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_STRING = 8;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_INTERFACE_METHODREF = 11;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+    private static final int CONSTANT_METHOD_HANDLE = 15;
+    private static final int CONSTANT_METHOD_TYPE = 16;
+    private static final int CONSTANT_DYNAMIC = 17;
+    private static final int CONSTANT_INVOKE_DYNAMIC = 18;
+    private static final int CONSTANT_MODULE = 19;
+    private static final int CONSTANT_PACKAGE = 20;
+
+    private final ByteNeedles prefixes;
+    private final ByteNeedles startPrefixes;
+    private final ByteNeedles substrings;
+    private final boolean matchAll;
+
+    /**
+     * @param prefixes      The prefixes to search at the start of a constant and after every {@code L}
+     * @param startPrefixes The prefixes to only search at the start of a constant
+     */
+    public ConstantPoolFilter(final Collection<String> prefixes, final Collection<String> startPrefixes) {
+        this(prefixes, startPrefixes, List.of());
+    }
+
+    /**
+     * @param prefixes      The prefixes to search at the start of a constant and after every {@code L}
+     * @param startPrefixes The prefixes to only search at the start of a constant
+     * @param substrings    The strings to search anywhere in a constant
+     */
+    public ConstantPoolFilter(final Collection<String> prefixes, final Collection<String> startPrefixes, final Collection<String> substrings) {
+        this.prefixes = new ByteNeedles(prefixes.stream().map(ConstantPoolFilter::toModifiedUtf8).toList());
+        this.startPrefixes = new ByteNeedles(startPrefixes.stream().map(ConstantPoolFilter::toModifiedUtf8).toList());
+        this.substrings = new ByteNeedles(substrings.stream().map(ConstantPoolFilter::toModifiedUtf8).toList());
+        this.matchAll = prefixes.stream().anyMatch(String::isEmpty) || startPrefixes.stream().anyMatch(String::isEmpty) || substrings.stream().anyMatch(String::isEmpty);
+    }
+
+    /**
+     * Check if the constant pool of the given class contains any of the prefixes.<br>
+     * Malformed classes are always reported as a match, so the caller can fail when parsing them.
+     *
+     * @param classBytes The raw bytes of the class
+     * @return If the class could reference any of the prefixes
+     */
+    public boolean matches(final byte[] classBytes) {
+        if (this.matchAll) return true;
+        try {
+            if (readInt(classBytes, 0) != 0xCAFEBABE) return true;
+            int count = readUnsignedShort(classBytes, 8);
+            int offset = 10;
+            for (int i = 1; i < count; i++) {
+                switch (classBytes[offset] & 0xFF) {
+                    case CONSTANT_UTF8 -> {
+                        int start = offset + 3;
+                        int end = start + readUnsignedShort(classBytes, offset + 1);
+                        if (end > classBytes.length) return true;
+                        if (this.matchesUtf8(classBytes, start, end)) return true;
+                        offset = end;
+                    }
+                    case CONSTANT_CLASS, CONSTANT_STRING, CONSTANT_METHOD_TYPE, CONSTANT_MODULE, CONSTANT_PACKAGE -> offset += 3;
+                    case CONSTANT_METHOD_HANDLE -> offset += 4;
+                    case CONSTANT_INTEGER, CONSTANT_FLOAT, CONSTANT_FIELDREF, CONSTANT_METHODREF, CONSTANT_INTERFACE_METHODREF,
+                         CONSTANT_NAME_AND_TYPE, CONSTANT_DYNAMIC, CONSTANT_INVOKE_DYNAMIC -> offset += 5;
+                    case CONSTANT_LONG, CONSTANT_DOUBLE -> {
+                        offset += 9;
+                        i++; //Long and double constants take up two slots
+                    }
+                    default -> {
+                        return true; //Unknown constant, the size can't be determined
+                    }
+                }
+            }
+            return false;
+        } catch (IndexOutOfBoundsException e) {
+            return true;
+        }
+    }
+
+    private boolean matchesUtf8(final byte[] bytes, final int start, final int end) {
+        if (this.startPrefixes.matchesAt(bytes, start, end)) return true;
+        if (this.prefixes.matchesAt(bytes, start, end)) return true;
+        for (int i = start; i < end - 1; i++) {
+            if (bytes[i] == 'L' && this.prefixes.matchesAt(bytes, i + 1, end)) return true;
+        }
+        if (!this.substrings.isEmpty()) {
+            for (int i = start; i < end; i++) {
+                if (this.substrings.matchesAt(bytes, i, end)) return true;
+            }
+        }
+        return false;
+    }
+
+    private static byte[] toModifiedUtf8(final String s) {
+        //The constant pool uses the same encoding as DataOutput#writeUTF
+        try {
+            ByteArrayOutputStream baos = new ByteArrayOutputStream();
+            new DataOutputStream(baos).writeUTF(s);
+            return Arrays.copyOfRange(baos.toByteArray(), 2, baos.size());
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static int readUnsignedShort(final byte[] bytes, final int offset) {
+        return ((bytes[offset] & 0xFF) << 8) | (bytes[offset + 1] & 0xFF);
+    }
+
+    private static int readInt(final byte[] bytes, final int offset) {
+        return (readUnsignedShort(bytes, offset) << 16) | readUnsignedShort(bytes, offset + 2);
+    }
+
+}
@@ -0,0 +1,215 @@
+package net.lenni0451.jartransformer.utils;
+
+import java.util.*;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * A compiled set of path rules which can be matched against entry names.<br>
+ * Literal prefixes and simple globs (e.g. {@code META-INF/*.SF} or {@code **}{@code /module-info.class}) are stored in a prefix trie
+ * and a suffix trie, so they are matched without allocating anything. All other rules are combined into a single regex.<br>
+ * Like in {@link PatternUtils#globToRegex(String)}, {@code \} and {@code /} are treated as the same character.
+ */
+public class ExcludeMatcher {
+
+    /**
+     * Compile a set of globs.
+     *
+     * @param globs The globs to match
+     * @return The compiled matcher
+     * @see PatternUtils#globToRegex(String)
+     */
+    public static ExcludeMatcher ofGlobs(final Collection<String> globs) {
+        return new ExcludeMatcher(Collections.emptyList(), globs, Collections.emptyList());
+    }
+
+
+    private final PrefixNode prefixes = new PrefixNode();
+    private final SuffixNode suffixes = new SuffixNode();
+    private final List<Pattern> patterns = new ArrayList<>();
+
+    /**
+     * @param prefixes The literal prefixes to match
+     * @param globs    The globs to match
+     * @param regexes  The regexes which have to match the whole path
+     */
+    public ExcludeMatcher(final Collection<String> prefixes, final Collection<String> globs, final Collection<String> regexes) {
+        for (String prefix : prefixes) this.prefixes.get(normalize(prefix)).prefix = true;
+        List<String> remaining = new ArrayList<>();
+        for (String glob : globs) {
+            if (glob == null || glob.trim().isEmpty()) continue; //Empty globs never match
+            if (!this.addGlob(normalize(glob.trim()))) remaining.add(PatternUtils.globToRegex(glob).pattern());
+        }
+        remaining.addAll(regexes);
+        this.compilePatterns(remaining);
+    }
+
+    /**
+     * @param path The path to check
+     * @return If any rule matches the path
+     */
+    public boolean matches(final CharSequence path) {
+        return this.matches(path, path.length());
+    }
+
+    /**
+     * Check if any rule matches the start of the path, e.g. a parent directory.
+     *
+     * @param path The path to check
+     * @param end  The exclusive end of the checked part of the path
+     * @return If any rule matches the path until the end
+     */
+    public boolean matches(final CharSequence path, final int end) {
+        if (this.matchesPrefix(path, end) || this.matchesSuffix(path, end)) return true;
+        for (Pattern pattern : this.patterns) {
+            if (pattern.matcher(path).region(0, end).matches()) return true;
+        }
+        return false;
+    }
+
+    private boolean addGlob(final String glob) {
+        boolean anyDirectory = glob.startsWith("**/");
+        String rest = anyDirectory ? glob.substring(3) : glob;
+        if (rest.isEmpty()) return false;
+        int wildcard = indexOfWildcard(rest);
+        if (anyDirectory) {
+            if (wildcard == -1) {
+                //**/name matches the name in any directory
+                this.suffixes.get(rest).segment = true;
+                return true;
+            } else if (rest.startsWith("*") && rest.length() > 1 && rest.charAt(1) != '*') {
+                //**/*name matches any path ending with the name if it does not contain a separator
+                String suffix = rest.substring(1);
+                if (indexOfWildcard(suffix) != -1 || suffix.indexOf('/') != -1) return false;
+                this.suffixes.get(suffix).endsWith = true;
+                return true;
+            }
+            return false;
+        }
+        if (wildcard == -1) {
+            this.prefixes.get(rest).rules.add(new GlobRule(GlobType.EXACT, ""));
+            return true;
+        }
+        boolean doubleStar = rest.startsWith("**", wildcard);
+        String suffix = rest.substring(wildcard + (doubleStar ? 2 : 1));
+        if (rest.charAt(wildcard) != '*' || indexOfWildcard(suffix) != -1) return false;
+        this.prefixes.get(rest.substring(0, wildcard)).rules.add(new GlobRule(doubleStar ? GlobType.DOUBLE_STAR : GlobType.SINGLE_STAR, suffix));
+        return true;
+    }
+
+    private void compilePatterns(final List<String> regexes) {
+        if (regexes.isEmpty()) return;
+        if (regexes.size() > 1) {
+            //Back references and named groups can't be combined, those regexes are matched separately
+            boolean combinable = regexes.stream().noneMatch(regex -> regex.matches("(?s).*\\\\([1-9]|k<).*"));
+            if (combinable) {
+                StringJoiner alternation = new StringJoiner("|");
+                for (String regex : regexes) alternation.add("(?:" + regex + ")");
+                try {
+                    this.patterns.add(Pattern.compile(alternation.toString()));
+                    return;
+                } catch (PatternSyntaxException ignored) {
+                }
+            }
+        }
+        for (String regex : regexes) this.patterns.add(Pattern.compile(regex));
+    }
+
+    private boolean matchesPrefix(final CharSequence path, final int end) {
+        PrefixNode node = this.prefixes;
+        for (int i = 0; ; i++) {
+            if (node.prefix) return true;
+            for (GlobRule rule : node.rules) {
+                if (rule.matches(path, i, end)) return true;
+            }
+            if (i >= end) return false;
+            node = node.children.get(normalize(path.charAt(i)));
+            if (node == null) return false;
+        }
+    }
+
+    private boolean matchesSuffix(final CharSequence path, final int end) {
+        SuffixNode node = this.suffixes;
+        for (int i = end - 1; i >= 0; i--) {
+            node = node.children.get(normalize(path.charAt(i)));
+            if (node == null) return false;
+            if (node.endsWith) return true;
+            if (node.segment && (i == 0 || isSeparator(path.charAt(i - 1)))) return true;
+        }
+        return false;
+    }
+
+    private static int indexOfWildcard(final String s) {
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '*' || c == '?') return i;
+        }
+        return -1;
+    }
+
+    private static String normalize(final String s) {
+        return s.replace('\\', '/');
+    }
+
+    private static char normalize(final char c) {
+        return c == '\\' ? '/' : c;
+    }
+
+    private static boolean isSeparator(final char c) {
+        return c == '/' || c == '\\';
+    }
+
+
+    private static class PrefixNode {
+        private final Map<Character, PrefixNode> children = new HashMap<>();
+        private final List<GlobRule> rules = new ArrayList<>();
+        private boolean prefix;
+
+        private PrefixNode get(final String key) {
+            PrefixNode node = this;
+            for (int i = 0; i < key.length(); i++) node = node.children.computeIfAbsent(key.charAt(i), c -> new PrefixNode());
+            return node;
+        }
+    }
+
+    private static class SuffixNode {
+        private final Map<Character, SuffixNode> children = new HashMap<>();
+        private boolean endsWith;
+        private boolean segment;
+
+        private SuffixNode get(final String key) {
+            SuffixNode node = this;
+            for (int i = key.length() - 1; i >= 0; i--) node = node.children.computeIfAbsent(key.charAt(i), c -> new SuffixNode());
+            return node;
+        }
+    }
+
+    /**
+     * A glob with a literal prefix, which is stored in the prefix trie.
+     *
+     * @param type   The part between the prefix and the suffix
+     * @param suffix The literal suffix of the glob
+     */
+    private record GlobRule(GlobType type, String suffix) {
+        private boolean matches(final CharSequence path, final int start, final int end) {
+            if (this.type == GlobType.EXACT) return start == end;
+            int suffixStart = end - this.suffix.length();
+            if (suffixStart < start) return false;
+            for (int i = 0; i < this.suffix.length(); i++) {
+                if (normalize(path.charAt(suffixStart + i)) != this.suffix.charAt(i)) return false;
+            }
+            if (this.type == GlobType.SINGLE_STAR) {
+                //A single star does not match separators
+                for (int i = start; i < suffixStart; i++) {
+                    if (isSeparator(path.charAt(i))) return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    private enum GlobType {
+        EXACT, SINGLE_STAR, DOUBLE_STAR
+    }
+
+}
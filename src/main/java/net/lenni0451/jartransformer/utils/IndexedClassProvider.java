@@ -0,0 +1,182 @@
+package net.lenni0451.jartransformer.utils;
+
+import net.lenni0451.classtransform.utils.tree.IClassProvider;
+
+import javax.annotation.Nullable;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.FileSystem;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A class provider which looks up classes by their path in the target jar and the classpath.<br>
+ * Nothing is walked upfront, the file system of the target jar and the central directory index of the classpath jars
+ * are only asked for the classes which are actually needed. Classes which are not found (e.g. JDK classes) are loaded from the parent provider.<br>
+ * Every class is only read once, also classes which could not be found are remembered.
+ * This avoids reopening entries when the same classes are looked up again while computing the frames of multiple classes.
+ * Only the class bytes are memoized, ClassTransform computes the hierarchy and common super classes from them itself.
+ */
+public class IndexedClassProvider implements IClassProvider, Closeable {
+
+    private final IClassProvider parent;
+    private final List<Source> sources = new ArrayList<>();
+    private final Map<String, byte[]> classes = new ConcurrentHashMap<>();
+    private final Set<String> missing = ConcurrentHashMap.newKeySet();
+
+    /**
+     * @param target    The file system of the jar being transformed
+     * @param classpath The classpath, earlier elements shadow the classes of later ones
+     * @param parent    The provider for all other classes
+     */
+    public IndexedClassProvider(final FileSystem target, final Iterable<File> classpath, final IClassProvider parent) {
+        this.parent = parent;
+        //The target jar shadows the classpath, like the jar itself would be first on the runtime classpath
+        this.sources.add(new DirectorySource(target.getPath("/")));
+        for (File file : classpath) {
+            if (file.isDirectory()) this.sources.add(new DirectorySource(file.toPath()));
+            else if (file.isFile()) this.sources.add(new JarSource(file));
+        }
+    }
+
+    @Override
+    public byte[] getClass(final String name) throws ClassNotFoundException {
+        String internalName = name.replace('.', '/');
+        byte[] bytes = this.classes.get(internalName);
+        if (bytes != null) return bytes;
+        if (this.missing.contains(internalName)) throw new ClassNotFoundException(name);
+
+        try {
+            for (Source source : this.sources) {
+                bytes = source.read(internalName);
+                if (bytes != null) break;
+            }
+            if (bytes == null) bytes = this.parent.getClass(name);
+        } catch (IOException e) {
+            throw new ClassNotFoundException(name, e);
+        } catch (ClassNotFoundException e) {
+            this.missing.add(internalName);
+            throw e;
+        }
+        if (bytes == null) {
+            this.missing.add(internalName);
+            throw new ClassNotFoundException(name);
+        }
+        this.classes.put(internalName, bytes);
+        return bytes;
+    }
+
+    @Override
+    public Map<String, Supplier<byte[]>> getAllClasses() {
+        Map<String, Supplier<byte[]>> classes = new HashMap<>(this.parent.getAllClasses());
+        //Listing all classes is the only case in which the sources have to be walked
+        Consumer<String> consumer = name -> {
+            String className = name.replace('/', '.');
+            classes.put(className, () -> {
+                try {
+                    return this.getClass(className);
+                } catch (ClassNotFoundException e) {
+                    throw new IllegalStateException("Failed to read listed class: " + className, e);
+                }
+            });
+        };
+        try {
+            for (Source source : this.sources) source.list(consumer);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return classes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        for (Source source : this.sources) {
+            if (source instanceof JarSource jar) jar.close();
+        }
+    }
+
+    private static boolean isClass(final String path) {
+        return path.endsWith(".class") && !path.startsWith("META-INF/") && !path.endsWith("module-info.class");
+    }
+
+
+    private interface Source {
+        /**
+         * @return The bytes of the class or {@code null} if this source doesn't contain it
+         */
+        @Nullable
+        byte[] read(final String name) throws IOException;
+
+        void list(final Consumer<String> consumer) throws IOException;
+    }
+
+    private record DirectorySource(Path root) implements Source {
+        @Override
+        public byte[] read(final String name) throws IOException {
+            Path path = this.root.resolve(name + ".class");
+            if (!Files.isRegularFile(path)) return null;
+            return Files.readAllBytes(path);
+        }
+
+        @Override
+        public void list(final Consumer<String> consumer) throws IOException {
+            try (Stream<Path> paths = Files.walk(this.root)) {
+                paths.filter(Files::isRegularFile).forEach(path -> {
+                    String name = this.root.relativize(path).toString().replace(this.root.getFileSystem().getSeparator(), "/");
+                    if (isClass(name)) consumer.accept(name.substring(0, name.length() - 6));
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+        }
+    }
+
+    private static class JarSource implements Source, Closeable {
+        private final File file;
+        private ZipFile zipFile;
+
+        private JarSource(final File file) {
+            this.file = file;
+        }
+
+        @Override
+        public synchronized byte[] read(final String name) throws IOException {
+            ZipEntry entry = this.getZipFile().getEntry(name + ".class");
+            if (entry == null) return null;
+            try (InputStream is = this.zipFile.getInputStream(entry)) {
+                return is.readAllBytes();
+            }
+        }
+
+        @Override
+        public synchronized void list(final Consumer<String> consumer) throws IOException {
+            Enumeration<? extends ZipEntry> entries = this.getZipFile().entries();
+            while (entries.hasMoreElements()) {
+                String name = entries.nextElement().getName();
+                if (isClass(name)) consumer.accept(name.substring(0, name.length() - 6));
+            }
+        }
+
+        @Override
+        public synchronized void close() throws IOException {
+            if (this.zipFile != null) this.zipFile.close();
+        }
+
+        private ZipFile getZipFile() throws IOException {
+            //The central directory is only read once a class is looked up in this jar
+            if (this.zipFile == null) this.zipFile = new ZipFile(this.file);
+            return this.zipFile;
+        }
+    }
+
+}
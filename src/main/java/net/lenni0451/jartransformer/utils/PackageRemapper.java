@@ -2,32 +2,79 @@ package net.lenni0451.jartransformer.utils;
 
 import org.objectweb.asm.commons.SimpleRemapper;
 
-import java.util.Collections;
-import java.util.Map;
-import java.util.stream.Collectors;
+import javax.annotation.Nullable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * A remapper which relocates class names by their prefix.<br>
+ * All relocations are compiled into a prefix trie, so a lookup only depends on the length of the name and not on the amount of relocations.
+ * If multiple relocations match, the longest one wins.
+ */
 public class PackageRemapper extends SimpleRemapper {
 
-    private final Map<String, String> mapping;
+    private final Node root = new Node();
+    private final Map<String, Optional<String>> cache = new ConcurrentHashMap<>();
 
     public PackageRemapper(final Map<String, String> mapping) {
         super(Collections.emptyMap()); //The remapper should not remap anything itself
-        this.mapping = mapping.entrySet().stream().collect(Collectors.toMap(entry -> entry.getKey().replace('.', '/'), e -> e.getValue().replace('.', '/')));
+        for (Map.Entry<String, String> entry : mapping.entrySet()) {
+            String from = entry.getKey().replace('.', '/');
+            String to = entry.getValue().replace('.', '/');
+            Node node = this.root;
+            for (int i = 0; i < from.length(); i++) {
+                node = node.children.computeIfAbsent(from.charAt(i), c -> new Node());
+            }
+            node.target = to;
+            node.dottedTarget = to.replace('/', '.');
+        }
     }
 
     @Override
     public String map(String key) {
         if (key.contains(".")) return null; //Ignore fields and methods (class.name)
-        return this.mapUnchecked(key);
+        return this.cache.computeIfAbsent(key, k -> Optional.ofNullable(this.mapUnchecked(k))).orElse(null);
     }
 
+    @Nullable
     public String mapUnchecked(final String key) {
-        for (Map.Entry<String, String> entry : this.mapping.entrySet()) {
-            if (key.startsWith(entry.getKey())) {
-                return entry.getValue() + key.substring(entry.getKey().length());
+        return this.find(key, '/');
+    }
+
+    /**
+     * Map a name which uses {@code .} as package separator, e.g. a class name in a string.
+     *
+     * @param key The name to map
+     * @return The mapped name with {@code .} as package separator or {@code null} if no relocation matches
+     */
+    @Nullable
+    public String mapDotted(final String key) {
+        return this.find(key, '.');
+    }
+
+    @Nullable
+    private String find(final String key, final char separator) {
+        Node node = this.root;
+        Node match = node.target == null ? null : node;
+        int matchLength = 0;
+        for (int i = 0; i < key.length(); i++) {
+            char c = key.charAt(i);
+            node = node.children.get(c == separator ? '/' : c);
+            if (node == null) break;
+            if (node.target != null) {
+                match = node;
+                matchLength = i + 1;
             }
         }
-        return null;
+        if (match == null) return null;
+        return (separator == '.' ? match.dottedTarget : match.target) + key.substring(matchLength);
+    }
+
+
+    private static class Node {
+        private final Map<Character, Node> children = new HashMap<>();
+        private String target;
+        private String dottedTarget;
     }
 
 }
@@ -0,0 +1,285 @@
+package net.lenni0451.jartransformer.utils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipException;
+
+/**
+ * A zip file reader which gives access to the compressed data of the entries.<br>
+ * Only the central directory is parsed when opening the file. Entries can either be inflated
+ * or copied to a {@link RawZipOutput} without decompressing and compressing them again.
+ */
+public class RawZipFile implements Closeable {
+
+    static final int LOCAL_HEADER_SIGNATURE = 0x04034B50;
+    static final int CENTRAL_HEADER_SIGNATURE = 0x02014B50;
+    static final int END_SIGNATURE = 0x06054B50;
+    static final int ZIP64_END_SIGNATURE = 0x06064B50;
+    static final int ZIP64_LOCATOR_SIGNATURE = 0x07064B50;
+    static final int ZIP64_EXTRA_ID = 0x0001;
+    static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_SIZE = 22;
+    private static final int ZIP64_END_SIZE = 56;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    private final File file;
+    private final FileChannel channel;
+    private final List<Entry> entries;
+
+    public RawZipFile(final File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            this.entries = Collections.unmodifiableList(this.readCentralDirectory());
+        } catch (IOException | RuntimeException e) {
+            this.channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return All entries in the order of the central directory
+     */
+    public List<Entry> getEntries() {
+        return this.entries;
+    }
+
+    /**
+     * Read and inflate the content of an entry.
+     *
+     * @param entry The entry to read
+     * @return The uncompressed content
+     * @throws IOException If the entry could not be read or is corrupted
+     */
+    public byte[] read(final Entry entry) throws IOException {
+        byte[] raw = this.readFully(this.getDataOffset(entry), this.checkSize(entry, entry.compressedSize()));
+        byte[] content = switch (entry.method()) {
+            case ZipEntry.STORED -> raw;
+            case ZipEntry.DEFLATED -> {
+                Inflater inflater = new Inflater(true);
+                try (InputStream is = new InflaterInputStream(new ByteArrayInputStream(raw), inflater)) {
+                    yield is.readNBytes(this.checkSize(entry, entry.size()));
+                } finally {
+                    inflater.end();
+                }
+            }
+            default -> throw new ZipException("Unsupported compression method " + entry.method() + " of entry " + entry.name() + " in " + this.file.getName());
+        };
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        if (content.length != entry.size() || crc.getValue() != entry.crc()) {
+            throw new ZipException("Corrupted entry " + entry.name() + " in " + this.file.getName());
+        }
+        return content;
+    }
+
+    /**
+     * Read the extra fields of the local header of an entry.<br>
+     * They often differ from the extra fields in the central directory (e.g. longer timestamps or alignment padding).
+     *
+     * @param entry The entry
+     * @return The extra fields of the local header without the zip64 field
+     * @throws IOException If the local header could not be read
+     */
+    public byte[] readLocalExtra(final Entry entry) throws IOException {
+        ByteBuffer header = this.readLocalHeader(entry);
+        int nameLength = Short.toUnsignedInt(header.getShort(26));
+        int extraLength = Short.toUnsignedInt(header.getShort(28));
+        ByteBuffer extra = this.read(entry.localHeaderOffset() + LOCAL_HEADER_SIZE + nameLength, extraLength);
+        ByteArrayOutputStream fields = new ByteArrayOutputStream();
+        int position = 0;
+        while (position + 4 <= extraLength) {
+            int id = Short.toUnsignedInt(extra.getShort(position));
+            int length = Short.toUnsignedInt(extra.getShort(position + 2));
+            if (position + 4 + length > extraLength) break;
+            //The zip64 field is written again by the output if required
+            if (id != ZIP64_EXTRA_ID) fields.write(extra.array(), position, 4 + length);
+            position += 4 + length;
+        }
+        return fields.toByteArray();
+    }
+
+    /**
+     * Copy the compressed data of an entry to the given output stream.
+     *
+     * @param entry The entry to copy
+     * @param os    The output stream to write the compressed data to
+     * @throws IOException If the data could not be read or written
+     */
+    public void transferRaw(final Entry entry, final OutputStream os) throws IOException {
+        long position = this.getDataOffset(entry);
+        long remaining = entry.compressedSize();
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(remaining, 64 * 1024));
+        while (remaining > 0) {
+            buffer.clear().limit((int) Math.min(remaining, buffer.capacity()));
+            int read = this.channel.read(buffer, position);
+            if (read < 0) throw new EOFException("Unexpected end of " + this.file.getName());
+            os.write(buffer.array(), 0, read);
+            position += read;
+            remaining -= read;
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        this.channel.close();
+    }
+
+    private List<Entry> readCentralDirectory() throws IOException {
+        long fileSize = this.channel.size();
+        int tailSize = (int) Math.min(fileSize, END_SIZE + MAX_COMMENT_SIZE);
+        ByteBuffer tail = this.read(fileSize - tailSize, tailSize);
+        int endOffset = -1;
+        for (int i = tailSize - END_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_SIGNATURE) {
+                endOffset = i;
+                break;
+            }
+        }
+        if (endOffset == -1) throw new ZipException("No end of central directory found in " + this.file.getName());
+
+        long count = Short.toUnsignedLong(tail.getShort(endOffset + 10));
+        long size = Integer.toUnsignedLong(tail.getInt(endOffset + 12));
+        long offset = Integer.toUnsignedLong(tail.getInt(endOffset + 16));
+        long locatorPosition = fileSize - tailSize + endOffset - ZIP64_LOCATOR_SIZE;
+        if (locatorPosition >= 0 && (count == 0xFFFF || size == ZIP64_MAGIC || offset == ZIP64_MAGIC)) {
+            ByteBuffer locator = this.read(locatorPosition, ZIP64_LOCATOR_SIZE);
+            if (locator.getInt(0) == ZIP64_LOCATOR_SIGNATURE) {
+                ByteBuffer end = this.read(locator.getLong(8), ZIP64_END_SIZE);
+                if (end.getInt(0) != ZIP64_END_SIGNATURE) throw new ZipException("Invalid zip64 end of central directory in " + this.file.getName());
+                count = end.getLong(32);
+                size = end.getLong(40);
+                offset = end.getLong(48);
+            }
+        }
+        if (size > Integer.MAX_VALUE || offset + size > fileSize) throw new ZipException("Invalid central directory in " + this.file.getName());
+
+        ByteBuffer directory = this.read(offset, (int) size);
+        List<Entry> entries = new ArrayList<>((int) Math.min(count, 0xFFFF));
+        int position = 0;
+        for (long i = 0; i < count; i++) {
+            if (directory.getInt(position) != CENTRAL_HEADER_SIGNATURE) throw new ZipException("Invalid central directory entry in " + this.file.getName());
+            int versionMadeBy = Short.toUnsignedInt(directory.getShort(position + 4));
+            int flags = Short.toUnsignedInt(directory.getShort(position + 8));
+            int method = Short.toUnsignedInt(directory.getShort(position + 10));
+            int time = Short.toUnsignedInt(directory.getShort(position + 12));
+            int date = Short.toUnsignedInt(directory.getShort(position + 14));
+            long crc = Integer.toUnsignedLong(directory.getInt(position + 16));
+            long compressedSize = Integer.toUnsignedLong(directory.getInt(position + 20));
+            long uncompressedSize = Integer.toUnsignedLong(directory.getInt(position + 24));
+            int nameLength = Short.toUnsignedInt(directory.getShort(position + 28));
+            int extraLength = Short.toUnsignedInt(directory.getShort(position + 30));
+            int commentLength = Short.toUnsignedInt(directory.getShort(position + 32));
+            long externalAttributes = Integer.toUnsignedLong(directory.getInt(position + 38));
+            long localHeaderOffset = Integer.toUnsignedLong(directory.getInt(position + 42));
+            if ((flags & 1) != 0) throw new ZipException("Encrypted entries are not supported in " + this.file.getName());
+
+            byte[] name = new byte[nameLength];
+            directory.get(position + CENTRAL_HEADER_SIZE, name);
+            //Zip64 values are stored in the order of their fields if they don't fit into the header
+            ByteArrayOutputStream extra = new ByteArrayOutputStream();
+            int extraPosition = position + CENTRAL_HEADER_SIZE + nameLength;
+            int extraEnd = extraPosition + extraLength;
+            while (extraPosition + 4 <= extraEnd) {
+                int id = Short.toUnsignedInt(directory.getShort(extraPosition));
+                int length = Short.toUnsignedInt(directory.getShort(extraPosition + 2));
+                int dataPosition = extraPosition + 4;
+                int dataEnd = dataPosition + length;
+                if (dataEnd > extraEnd) break;
+                if (id == ZIP64_EXTRA_ID) {
+                    if (uncompressedSize == ZIP64_MAGIC && dataPosition + 8 <= dataEnd) {
+                        uncompressedSize = directory.getLong(dataPosition);
+                        dataPosition += 8;
+                    }
+                    if (compressedSize == ZIP64_MAGIC && dataPosition + 8 <= dataEnd) {
+                        compressedSize = directory.getLong(dataPosition);
+                        dataPosition += 8;
+                    }
+                    if (localHeaderOffset == ZIP64_MAGIC && dataPosition + 8 <= dataEnd) {
+                        localHeaderOffset = directory.getLong(dataPosition);
+                    }
+                } else {
+                    //The zip64 field is written again by the output if required
+                    extra.write(directory.array(), extraPosition, 4 + length);
+                }
+                extraPosition += 4 + length;
+            }
+            entries.add(new Entry(
+                    new String(name, StandardCharsets.UTF_8), versionMadeBy, flags, method, time, date,
+                    crc, compressedSize, uncompressedSize, externalAttributes, localHeaderOffset, extra.toByteArray()
+            ));
+            position += CENTRAL_HEADER_SIZE + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    private ByteBuffer readLocalHeader(final Entry entry) throws IOException {
+        ByteBuffer header = this.read(entry.localHeaderOffset(), LOCAL_HEADER_SIZE);
+        if (header.getInt(0) != LOCAL_HEADER_SIGNATURE) throw new ZipException("Invalid local header of entry " + entry.name() + " in " + this.file.getName());
+        return header;
+    }
+
+    private long getDataOffset(final Entry entry) throws IOException {
+        ByteBuffer header = this.readLocalHeader(entry);
+        int nameLength = Short.toUnsignedInt(header.getShort(26));
+        int extraLength = Short.toUnsignedInt(header.getShort(28));
+        return entry.localHeaderOffset() + LOCAL_HEADER_SIZE + nameLength + extraLength;
+    }
+
+    private int checkSize(final Entry entry, final long size) throws ZipException {
+        if (size > Integer.MAX_VALUE - 8) throw new ZipException("Entry " + entry.name() + " in " + this.file.getName() + " is too large to be read into memory");
+        return (int) size;
+    }
+
+    private byte[] readFully(final long position, final int length) throws IOException {
+        return this.read(position, length).array();
+    }
+
+    private ByteBuffer read(final long position, final int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (this.channel.read(buffer, position + buffer.position()) < 0) throw new EOFException("Unexpected end of " + this.file.getName());
+        }
+        return buffer;
+    }
+
+
+    /**
+     * An entry of the central directory.
+     *
+     * @param name               The name of the entry
+     * @param versionMadeBy      The version and host system which created the entry
+     * @param flags              The general purpose flags
+     * @param method             The compression method
+     * @param time               The last modification time in MS-DOS format
+     * @param date               The last modification date in MS-DOS format
+     * @param crc                The CRC-32 of the uncompressed content
+     * @param compressedSize     The size of the compressed data
+     * @param size               The size of the uncompressed content
+     * @param externalAttributes The external file attributes
+     * @param localHeaderOffset  The offset of the local header in the file
+     * @param extra              The extra fields without the zip64 field
+     */
+    public record Entry(String name, int versionMadeBy, int flags, int method, int time, int date,
+                        long crc, long compressedSize, long size, long externalAttributes, long localHeaderOffset, byte[] extra) {
+        public boolean isDirectory() {
+            return this.name.endsWith("/");
+        }
+    }
+
+}
@@ -0,0 +1,212 @@
+package net.lenni0451.jartransformer.utils;
+
+import javax.annotation.Nullable;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.ZipEntry;
+
+import static net.lenni0451.jartransformer.utils.RawZipFile.CENTRAL_HEADER_SIGNATURE;
+import static net.lenni0451.jartransformer.utils.RawZipFile.END_SIGNATURE;
+import static net.lenni0451.jartransformer.utils.RawZipFile.LOCAL_HEADER_SIGNATURE;
+import static net.lenni0451.jartransformer.utils.RawZipFile.ZIP64_END_SIGNATURE;
+import static net.lenni0451.jartransformer.utils.RawZipFile.ZIP64_EXTRA_ID;
+import static net.lenni0451.jartransformer.utils.RawZipFile.ZIP64_LOCATOR_SIGNATURE;
+import static net.lenni0451.jartransformer.utils.RawZipFile.ZIP64_MAGIC;
+
+/**
+ * A zip writer which can copy the compressed data of entries from a {@link RawZipFile}.<br>
+ * Copied entries keep their compression, CRC and timestamps. New entries are deflated.
+ * Zip64 records are only written if the output requires them.
+ */
+public class RawZipOutput implements Closeable {
+
+    private static final int VERSION = 20;
+    private static final int ZIP64_VERSION = 45;
+    private static final int UTF8_FLAG = 1 << 11;
+    private static final int DATA_DESCRIPTOR_FLAG = 1 << 3;
+
+    private final OutputStream os;
+    private final List<RawZipFile.Entry> entries = new ArrayList<>();
+    private final int time;
+    private final int date;
+    private long position;
+
+    public RawZipOutput(final OutputStream os) {
+        this.os = new BufferedOutputStream(os, 64 * 1024);
+        LocalDateTime now = LocalDateTime.now();
+        this.time = (now.getHour() << 11) | (now.getMinute() << 5) | (now.getSecond() >> 1);
+        this.date = ((Math.max(now.getYear(), 1980) - 1980) << 9) | (now.getMonthValue() << 5) | now.getDayOfMonth();
+    }
+
+    /**
+     * Copy an entry without decompressing it.
+     *
+     * @param source The zip file containing the entry
+     * @param entry  The entry to copy
+     * @throws IOException If the entry could not be copied
+     */
+    public void writeRaw(final RawZipFile source, final RawZipFile.Entry entry) throws IOException {
+        this.writeRaw(source, entry, entry.name());
+    }
+
+    /**
+     * Copy an entry without decompressing it and store it under a different name.
+     *
+     * @param source The zip file containing the entry
+     * @param entry  The entry to copy
+     * @param name   The name of the entry in the output
+     * @throws IOException If the entry could not be copied
+     */
+    public void writeRaw(final RawZipFile source, final RawZipFile.Entry entry, final String name) throws IOException {
+        //The sizes are known from the central directory, so no data descriptor is required
+        //The extra fields of the central directory are only used for the central record, the local header keeps its own
+        RawZipFile.Entry target = new RawZipFile.Entry(
+                name, entry.versionMadeBy(), (entry.flags() & ~DATA_DESCRIPTOR_FLAG) | UTF8_FLAG, entry.method(), entry.time(), entry.date(),
+                entry.crc(), entry.compressedSize(), entry.size(), entry.externalAttributes(), this.position, entry.extra()
+        );
+        this.writeLocalHeader(target, source.readLocalExtra(entry));
+        source.transferRaw(entry, this.os);
+        this.position += entry.compressedSize();
+        this.entries.add(target);
+    }
+
+    /**
+     * Write a new entry with the given content.
+     *
+     * @param name    The name of the entry
+     * @param content The uncompressed content
+     * @throws IOException If the entry could not be written
+     */
+    public void write(final String name, final byte[] content) throws IOException {
+        this.write(name, content, null);
+    }
+
+    /**
+     * Write a new entry with the given content.<br>
+     * The timestamp, attributes and extra fields are taken from the source entry. Stored source entries are not compressed.
+     *
+     * @param name    The name of the entry
+     * @param content The uncompressed content
+     * @param source  The entry the content was read from or {@code null} for a new entry
+     * @throws IOException If the entry could not be written
+     */
+    public void write(final String name, final byte[] content, @Nullable final RawZipFile.Entry source) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(content);
+        boolean stored = source != null && source.method() == ZipEntry.STORED;
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        if (stored) {
+            compressed.write(content);
+        } else {
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try (DeflaterOutputStream dos = new DeflaterOutputStream(compressed, deflater)) {
+                dos.write(content);
+            } finally {
+                deflater.end();
+            }
+        }
+        RawZipFile.Entry entry = new RawZipFile.Entry(
+                name, source == null ? VERSION : source.versionMadeBy(), UTF8_FLAG, stored ? ZipEntry.STORED : ZipEntry.DEFLATED,
+                source == null ? this.time : source.time(), source == null ? this.date : source.date(),
+                crc.getValue(), compressed.size(), content.length, source == null ? 0 : source.externalAttributes(), this.position,
+                source == null ? new byte[0] : source.extra()
+        );
+        this.writeLocalHeader(entry, entry.extra());
+        compressed.writeTo(this.os);
+        this.position += compressed.size();
+        this.entries.add(entry);
+    }
+
+    /**
+     * Write an empty directory entry.
+     *
+     * @param name The name of the directory ending with {@code /}
+     * @throws IOException If the entry could not be written
+     */
+    public void writeDirectory(final String name) throws IOException {
+        RawZipFile.Entry entry = new RawZipFile.Entry(name, VERSION, UTF8_FLAG, ZipEntry.STORED, this.time, this.date, 0, 0, 0, 0, this.position, new byte[0]);
+        this.writeLocalHeader(entry, entry.extra());
+        this.entries.add(entry);
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            long directoryOffset = this.position;
+            for (RawZipFile.Entry entry : this.entries) this.writeCentralHeader(entry);
+            long directorySize = this.position - directoryOffset;
+            boolean zip64 = this.entries.size() >= 0xFFFF || directorySize >= ZIP64_MAGIC || directoryOffset >= ZIP64_MAGIC;
+            if (zip64) {
+                long endOffset = this.position;
+                ByteBuffer end = this.buffer(56);
+                end.putInt(ZIP64_END_SIGNATURE).putLong(44).putShort((short) ZIP64_VERSION).putShort((short) ZIP64_VERSION);
+                end.putInt(0).putInt(0).putLong(this.entries.size()).putLong(this.entries.size()).putLong(directorySize).putLong(directoryOffset);
+                this.write(end);
+                ByteBuffer locator = this.buffer(20);
+                locator.putInt(ZIP64_LOCATOR_SIGNATURE).putInt(0).putLong(endOffset).putInt(1);
+                this.write(locator);
+            }
+            ByteBuffer end = this.buffer(22);
+            end.putInt(END_SIGNATURE).putShort((short) 0).putShort((short) 0);
+            end.putShort((short) Math.min(this.entries.size(), 0xFFFF)).putShort((short) Math.min(this.entries.size(), 0xFFFF));
+            end.putInt((int) Math.min(directorySize, ZIP64_MAGIC)).putInt((int) Math.min(directoryOffset, ZIP64_MAGIC)).putShort((short) 0);
+            this.write(end);
+        } finally {
+            this.os.close();
+        }
+    }
+
+    private void writeLocalHeader(final RawZipFile.Entry entry, final byte[] localExtra) throws IOException {
+        byte[] name = entry.name().getBytes(StandardCharsets.UTF_8);
+        boolean zip64 = entry.size() >= ZIP64_MAGIC || entry.compressedSize() >= ZIP64_MAGIC;
+        byte[] extra = zip64 ? this.zip64Extra(localExtra, entry.size(), entry.compressedSize()) : localExtra;
+        ByteBuffer header = this.buffer(30 + name.length + extra.length);
+        header.putInt(LOCAL_HEADER_SIGNATURE).putShort((short) (zip64 ? ZIP64_VERSION : VERSION)).putShort((short) entry.flags()).putShort((short) entry.method());
+        header.putShort((short) entry.time()).putShort((short) entry.date()).putInt((int) entry.crc());
+        header.putInt((int) (zip64 ? ZIP64_MAGIC : entry.compressedSize())).putInt((int) (zip64 ? ZIP64_MAGIC : entry.size()));
+        header.putShort((short) name.length).putShort((short) extra.length).put(name).put(extra);
+        this.write(header);
+    }
+
+    private void writeCentralHeader(final RawZipFile.Entry entry) throws IOException {
+        byte[] name = entry.name().getBytes(StandardCharsets.UTF_8);
+        List<Long> zip64Values = new ArrayList<>();
+        if (entry.size() >= ZIP64_MAGIC) zip64Values.add(entry.size());
+        if (entry.compressedSize() >= ZIP64_MAGIC) zip64Values.add(entry.compressedSize());
+        if (entry.localHeaderOffset() >= ZIP64_MAGIC) zip64Values.add(entry.localHeaderOffset());
+        boolean zip64 = !zip64Values.isEmpty();
+        byte[] extra = zip64 ? this.zip64Extra(entry.extra(), zip64Values.stream().mapToLong(Long::longValue).toArray()) : entry.extra();
+        ByteBuffer header = this.buffer(46 + name.length + extra.length);
+        header.putInt(CENTRAL_HEADER_SIGNATURE).putShort((short) entry.versionMadeBy()).putShort((short) (zip64 ? ZIP64_VERSION : VERSION));
+        header.putShort((short) entry.flags()).putShort((short) entry.method()).putShort((short) entry.time()).putShort((short) entry.date()).putInt((int) entry.crc());
+        header.putInt((int) Math.min(entry.compressedSize(), ZIP64_MAGIC)).putInt((int) Math.min(entry.size(), ZIP64_MAGIC));
+        header.putShort((short) name.length).putShort((short) extra.length).putShort((short) 0).putShort((short) 0).putShort((short) 0);
+        header.putInt((int) entry.externalAttributes()).putInt((int) Math.min(entry.localHeaderOffset(), ZIP64_MAGIC)).put(name).put(extra);
+        this.write(header);
+    }
+
+    private byte[] zip64Extra(final byte[] extra, final long... values) {
+        ByteBuffer buffer = this.buffer(4 + values.length * 8 + extra.length);
+        buffer.putShort((short) ZIP64_EXTRA_ID).putShort((short) (values.length * 8));
+        for (long value : values) buffer.putLong(value);
+        return buffer.put(extra).array();
+    }
+
+    private ByteBuffer buffer(final int size) {
+        return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void write(final ByteBuffer buffer) throws IOException {
+        this.os.write(buffer.array(), 0, buffer.position());
+        this.position += buffer.position();
+    }
+
+}
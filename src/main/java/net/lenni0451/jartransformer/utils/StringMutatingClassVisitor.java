@@ -0,0 +1,180 @@
+package net.lenni0451.jartransformer.utils;
+
+import net.lenni0451.jartransformer.transformers.TransformEntry;
+import org.objectweb.asm.*;
+
+import java.util.function.Function;
+
+/**
+ * A class visitor which passes all string constants of a class through a mutator.<br>
+ * This includes field constant values, {@code ldc} instructions, bootstrap method arguments (e.g. string concatenation recipes)
+ * and the values of all annotations, including type and parameter annotations and annotation defaults.<br>
+ * The mutator may return {@code null} to keep the original string.
+ */
+public class StringMutatingClassVisitor extends ClassVisitor implements TransformEntry.ChangeTracking {
+
+    private final Function<String, String> mutator;
+    private boolean changed;
+
+    public StringMutatingClassVisitor(final ClassVisitor classVisitor, final Function<String, String> mutator) {
+        super(Opcodes.ASM9, classVisitor);
+        this.mutator = mutator;
+    }
+
+    @Override
+    public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+        return this.wrap(super.visitAnnotation(descriptor, visible));
+    }
+
+    @Override
+    public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+        return this.wrap(super.visitTypeAnnotation(typeRef, typePath, descriptor, visible));
+    }
+
+    @Override
+    public RecordComponentVisitor visitRecordComponent(String name, String descriptor, String signature) {
+        RecordComponentVisitor recordComponentVisitor = super.visitRecordComponent(name, descriptor, signature);
+        if (recordComponentVisitor == null) return null;
+        return new RecordComponentVisitor(this.api, recordComponentVisitor) {
+            @Override
+            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                return StringMutatingClassVisitor.this.wrap(super.visitAnnotation(descriptor, visible));
+            }
+
+            @Override
+            public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+                return StringMutatingClassVisitor.this.wrap(super.visitTypeAnnotation(typeRef, typePath, descriptor, visible));
+            }
+        };
+    }
+
+    @Override
+    public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+        if (value instanceof String s) value = this.mutate(s);
+        FieldVisitor fieldVisitor = super.visitField(access, name, descriptor, signature, value);
+        if (fieldVisitor == null) return null;
+        return new FieldVisitor(this.api, fieldVisitor) {
+            @Override
+            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                return StringMutatingClassVisitor.this.wrap(super.visitAnnotation(descriptor, visible));
+            }
+
+            @Override
+            public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+                return StringMutatingClassVisitor.this.wrap(super.visitTypeAnnotation(typeRef, typePath, descriptor, visible));
+            }
+        };
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+        MethodVisitor methodVisitor = super.visitMethod(access, name, descriptor, signature, exceptions);
+        if (methodVisitor == null) return null;
+        return new MethodVisitor(this.api, methodVisitor) {
+            @Override
+            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                return StringMutatingClassVisitor.this.wrap(super.visitAnnotation(descriptor, visible));
+            }
+
+            @Override
+            public AnnotationVisitor visitAnnotationDefault() {
+                return StringMutatingClassVisitor.this.wrap(super.visitAnnotationDefault());
+            }
+
+            @Override
+            public AnnotationVisitor visitTypeAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+                return StringMutatingClassVisitor.this.wrap(super.visitTypeAnnotation(typeRef, typePath, descriptor, visible));
+            }
+
+            @Override
+            public AnnotationVisitor visitParameterAnnotation(int parameter, String descriptor, boolean visible) {
+                return StringMutatingClassVisitor.this.wrap(super.visitParameterAnnotation(parameter, descriptor, visible));
+            }
+
+            @Override
+            public AnnotationVisitor visitInsnAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+                return StringMutatingClassVisitor.this.wrap(super.visitInsnAnnotation(typeRef, typePath, descriptor, visible));
+            }
+
+            @Override
+            public AnnotationVisitor visitTryCatchAnnotation(int typeRef, TypePath typePath, String descriptor, boolean visible) {
+                return StringMutatingClassVisitor.this.wrap(super.visitTryCatchAnnotation(typeRef, typePath, descriptor, visible));
+            }
+
+            @Override
+            public AnnotationVisitor visitLocalVariableAnnotation(int typeRef, TypePath typePath, Label[] start, Label[] end, int[] index, String descriptor, boolean visible) {
+                return StringMutatingClassVisitor.this.wrap(super.visitLocalVariableAnnotation(typeRef, typePath, start, end, index, descriptor, visible));
+            }
+
+            @Override
+            public void visitLdcInsn(Object value) {
+                super.visitLdcInsn(StringMutatingClassVisitor.this.mutateConstant(value));
+            }
+
+            @Override
+            public void visitInvokeDynamicInsn(String name, String descriptor, Handle bootstrapMethodHandle, Object... bootstrapMethodArguments) {
+                super.visitInvokeDynamicInsn(name, descriptor, bootstrapMethodHandle, StringMutatingClassVisitor.this.mutateConstants(bootstrapMethodArguments));
+            }
+        };
+    }
+
+    @Override
+    public boolean hasChanges() {
+        return this.changed;
+    }
+
+    private String mutate(final String s) {
+        String newValue = this.mutator.apply(s);
+        if (newValue == null || newValue.equals(s)) return s;
+        this.changed = true;
+        return newValue;
+    }
+
+    private Object mutateConstant(final Object value) {
+        if (value instanceof String s) return this.mutate(s);
+        if (value instanceof ConstantDynamic constantDynamic) {
+            Object[] arguments = new Object[constantDynamic.getBootstrapMethodArgumentCount()];
+            for (int i = 0; i < arguments.length; i++) arguments[i] = constantDynamic.getBootstrapMethodArgument(i);
+            Object[] mutatedArguments = this.mutateConstants(arguments);
+            if (mutatedArguments == arguments) return value;
+            return new ConstantDynamic(constantDynamic.getName(), constantDynamic.getDescriptor(), constantDynamic.getBootstrapMethod(), mutatedArguments);
+        }
+        return value;
+    }
+
+    /**
+     * @return The mutated constants or the given array if no constant has been changed
+     */
+    private Object[] mutateConstants(final Object[] values) {
+        Object[] mutated = values;
+        for (int i = 0; i < values.length; i++) {
+            Object value = this.mutateConstant(values[i]);
+            if (value == values[i]) continue;
+            if (mutated == values) mutated = values.clone();
+            mutated[i] = value;
+        }
+        return mutated;
+    }
+
+    private AnnotationVisitor wrap(final AnnotationVisitor annotationVisitor) {
+        if (annotationVisitor == null) return null;
+        return new AnnotationVisitor(this.api, annotationVisitor) {
+            @Override
+            public void visit(String name, Object value) {
+                if (value instanceof String s) value = StringMutatingClassVisitor.this.mutate(s);
+                super.visit(name, value);
+            }
+
+            @Override
+            public AnnotationVisitor visitAnnotation(String name, String descriptor) {
+                return StringMutatingClassVisitor.this.wrap(super.visitAnnotation(name, descriptor));
+            }
+
+            @Override
+            public AnnotationVisitor visitArray(String name) {
+                return StringMutatingClassVisitor.this.wrap(super.visitArray(name));
+            }
+        };
+    }
+
+}
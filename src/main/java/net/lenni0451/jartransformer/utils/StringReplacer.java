@@ -0,0 +1,243 @@
+package net.lenni0451.jartransformer.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * A compiled set of string replacements.<br>
+ * All literal replacements are matched in a single pass using an Aho-Corasick automaton.
+ * At every position the longest matching key is replaced and replaced text is not matched again.<br>
+ * Regex replacements are compiled once and applied in order after the literal replacements.
+ */
+public class StringReplacer {
+
+    private final Node root = new Node(0);
+    private final Set<String> literals = new LinkedHashSet<>();
+    private final List<RegexReplacement> regexReplacements = new ArrayList<>();
+
+    public StringReplacer(final Map<String, String> replacements, final Map<String, String> regexReplacements) {
+        for (Map.Entry<String, String> entry : replacements.entrySet()) {
+            if (entry.getKey().isEmpty()) continue;
+            Node node = this.root;
+            for (int i = 0; i < entry.getKey().length(); i++) {
+                int depth = i + 1;
+                node = node.children.computeIfAbsent(entry.getKey().charAt(i), c -> new Node(depth));
+            }
+            node.replacement = entry.getValue();
+            this.literals.add(entry.getKey());
+        }
+        this.link();
+        for (Map.Entry<String, String> entry : regexReplacements.entrySet()) {
+            this.regexReplacements.add(new RegexReplacement(Pattern.compile(entry.getKey()), entry.getValue()));
+        }
+    }
+
+    /**
+     * @return The keys of all literal replacements
+     */
+    public Set<String> getLiterals() {
+        return Collections.unmodifiableSet(this.literals);
+    }
+
+    /**
+     * @return If there are any regex replacements which can't be searched for literally
+     */
+    public boolean hasRegexReplacements() {
+        return !this.regexReplacements.isEmpty();
+    }
+
+    /**
+     * Apply all replacements to the given string.
+     *
+     * @param s The string to replace in
+     * @return The replaced string or the same instance if nothing was replaced
+     */
+    public String replace(final String s) {
+        String out = this.replaceLiterals(s);
+        for (RegexReplacement regexReplacement : this.regexReplacements) {
+            out = regexReplacement.pattern().matcher(out).replaceAll(regexReplacement.replacement());
+        }
+        return out.equals(s) ? s : out;
+    }
+
+    /**
+     * Apply all literal replacements while streaming from the reader to the writer.<br>
+     * Only the characters which could still be part of a match are buffered.
+     * This can't be used with regex replacements, since regexes require the full text.
+     *
+     * @param reader The reader to read the text from
+     * @param writer The writer to write the replaced text to
+     * @return If anything was replaced
+     * @throws IOException If reading or writing fails
+     */
+    public boolean replace(final Reader reader, final Writer writer) throws IOException {
+        if (this.hasRegexReplacements()) throw new IllegalStateException("Regex replacements can't be streamed");
+        LiteralMatcher matcher = new LiteralMatcher(writer);
+        StringBuilder buffer = new StringBuilder();
+        char[] chunk = new char[8192];
+        int read;
+        while ((read = reader.read(chunk)) != -1) {
+            buffer.append(chunk, 0, read);
+            matcher.scan(buffer, false);
+            //Everything before the first possible match can be written and dropped from the buffer
+            int safeEnd = matcher.safeEnd();
+            writer.append(buffer, matcher.copied, safeEnd);
+            buffer.delete(0, safeEnd);
+            matcher.shift(safeEnd);
+        }
+        matcher.scan(buffer, true);
+        writer.append(buffer, matcher.copied, buffer.length());
+        return matcher.replaced;
+    }
+
+    private String replaceLiterals(final String s) {
+        if (this.literals.isEmpty()) return s;
+        LiteralMatcher matcher = new LiteralMatcher(null);
+        try {
+            matcher.scan(s, true);
+            if (matcher.out == null) return s;
+            return matcher.out.append(s, matcher.copied, s.length()).toString();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e); //Can't happen when appending to a StringBuilder
+        }
+    }
+
+    private Node next(Node node, final char c) {
+        while (true) {
+            Node child = node.get(c);
+            if (child != null) return child;
+            if (node == this.root) return this.root;
+            node = node.fail;
+        }
+    }
+
+    private void link() {
+        Deque<Node> queue = new ArrayDeque<>();
+        this.root.freeze();
+        for (Node child : this.root.values) {
+            child.fail = this.root;
+            queue.add(child);
+        }
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            node.freeze();
+            node.output = node.replacement != null ? node : node.fail.output;
+            for (int i = 0; i < node.keys.length; i++) {
+                Node child = node.values[i];
+                child.fail = this.next(node.fail, node.keys[i]);
+                queue.add(child);
+            }
+        }
+    }
+
+
+    private record RegexReplacement(Pattern pattern, String replacement) {
+    }
+
+    /**
+     * The state of a leftmost-longest scan over a text.<br>
+     * All positions are relative to the start of the text, which can be shifted when streaming.
+     */
+    private class LiteralMatcher {
+        private Appendable out;
+        private Node node = StringReplacer.this.root;
+        private Node match;
+        private int matchStart;
+        private int copied;
+        private int position;
+        private boolean replaced;
+
+        private LiteralMatcher(final Appendable out) {
+            this.out = out;
+        }
+
+        /**
+         * Scan the text and append all replacements with the text before them to the output.
+         *
+         * @param text The text to scan
+         * @param last If the end of the text is the end of the input, otherwise a match may continue in the next part
+         */
+        private void scan(final CharSequence text, final boolean last) throws IOException {
+            while (true) {
+                boolean end = this.position >= text.length();
+                if (end && !last) return;
+                if (!end) {
+                    this.node = StringReplacer.this.next(this.node, text.charAt(this.position));
+                    this.position++;
+                    //The output of a node is the longest key ending here, which is also the one starting first
+                    Node output = this.node.output;
+                    if (output != null) {
+                        int start = this.position - output.depth;
+                        if (this.match == null || start < this.matchStart || (start == this.matchStart && output.depth > this.match.depth)) {
+                            this.match = output;
+                            this.matchStart = start;
+                        }
+                    }
+                }
+                if (this.match != null && (end || this.position - this.node.depth > this.matchStart)) {
+                    //No longer match can start at or before the current match anymore
+                    if (this.out == null) this.out = new StringBuilder(text.length());
+                    this.out.append(text, this.copied, this.matchStart).append(this.match.replacement);
+                    this.copied = this.matchStart + this.match.depth;
+                    this.position = this.copied;
+                    this.node = StringReplacer.this.root;
+                    this.match = null;
+                    this.replaced = true;
+                } else if (end) {
+                    return;
+                }
+            }
+        }
+
+        /**
+         * @return The position before which no match can start anymore
+         */
+        private int safeEnd() {
+            //A longer key which starts before the current match could still be completed
+            int stateStart = this.position - this.node.depth;
+            return this.match != null ? Math.min(this.matchStart, stateStart) : stateStart;
+        }
+
+        private void shift(final int offset) {
+            this.position -= offset;
+            this.matchStart -= offset;
+            this.copied = 0;
+        }
+    }
+
+    private static class Node {
+        private final int depth;
+        private Map<Character, Node> children = new HashMap<>();
+        private char[] keys;
+        private Node[] values;
+        private Node fail;
+        private Node output;
+        private String replacement;
+
+        private Node(final int depth) {
+            this.depth = depth;
+        }
+
+        private void freeze() {
+            List<Character> sortedKeys = new ArrayList<>(this.children.keySet());
+            Collections.sort(sortedKeys);
+            this.keys = new char[sortedKeys.size()];
+            this.values = new Node[sortedKeys.size()];
+            for (int i = 0; i < sortedKeys.size(); i++) {
+                this.keys[i] = sortedKeys.get(i);
+                this.values[i] = this.children.get(sortedKeys.get(i));
+            }
+            this.children = null;
+        }
+
+        private Node get(final char c) {
+            int index = Arrays.binarySearch(this.keys, c);
+            return index < 0 ? null : this.values[index];
+        }
+    }
+
+}